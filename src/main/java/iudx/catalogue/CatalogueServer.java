@@ -4,8 +4,11 @@ import java.util.logging.Logger;
 import io.vertx.core.AbstractVerticle;
 import io.vertx.core.DeploymentOptions;
 import io.vertx.core.Future;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.json.JsonObject;
 import iudx.catalogue.apiserver.APIServerVerticle;
 import iudx.catalogue.database.DatabaseVerticle;
+import iudx.catalogue.jobs.JobVerticle;
 import iudx.catalogue.validator.Validator;
 import iudx.catalogue.validator.ValidatorInterface;
 import iudx.catalogue.validator.ValidatorVerticle;
@@ -26,23 +29,35 @@ public class CatalogueServer extends AbstractVerticle {
         options,
         event -> {
           if (event.succeeded()) {
-            String database = "mongo";
+            // The database instances share one Mongo connection pool, and the event bus spreads
+            // the database requests over them
+            int procs = Runtime.getRuntime().availableProcessors();
+            int databaseInstances = config().getInteger("database_instances", procs);
 
             vertx.deployVerticle(
-                new DatabaseVerticle(database),
-                options,
+                DatabaseVerticle.class.getName(),
+                new DeploymentOptions(options).setInstances(databaseInstances),
                 event2 -> {
                   if (event2.succeeded()) {
-                    int procs = Runtime.getRuntime().availableProcessors();
+                    if (config().getBoolean("precompile_schemas", true)) {
+                      // Runs in the background, validation falls back to compiling on demand
+                      vertx
+                          .eventBus()
+                          .send(
+                              "validator",
+                              new JsonObject(),
+                              new DeliveryOptions().addHeader("action", "precompile-schemas"));
+                    }
+
+                    // Bulk jobs are queued in a single instance, which owns the job queue
                     vertx.deployVerticle(
-                        APIServerVerticle.class.getName(),
-                        options.setWorker(true).setInstances(procs * 2),
+                        new JobVerticle(),
+                        options,
                         event3 -> {
                           if (event3.succeeded()) {
-                            logger.info("IUDX Catalogue Vert.x API Server is started!");
-                            startFuture.complete();
+                            deployApiServer(options, procs, startFuture);
                           } else {
-                            logger.info("Unable to start API Verticle " + event3.cause());
+                            logger.info("Unable to start Job Verticle " + event3.cause());
                             startFuture.fail(event3.cause());
                           }
                         });
@@ -58,4 +73,23 @@ public class CatalogueServer extends AbstractVerticle {
           }
         });
   }
+
+  private void deployApiServer(DeploymentOptions options, int procs, Future<Void> startFuture) {
+    // The API server does not block, so by default it runs on the event loops with one instance
+    // per core. api_worker restores the worker deployment.
+    boolean apiWorker = config().getBoolean("api_worker", false);
+    int apiInstances = config().getInteger("api_instances", apiWorker ? procs * 2 : procs);
+    vertx.deployVerticle(
+        APIServerVerticle.class.getName(),
+        new DeploymentOptions(options).setWorker(apiWorker).setInstances(apiInstances),
+        event -> {
+          if (event.succeeded()) {
+            logger.info("IUDX Catalogue Vert.x API Server is started!");
+            startFuture.complete();
+          } else {
+            logger.info("Unable to start API Verticle " + event.cause());
+            startFuture.fail(event.cause());
+          }
+        });
+  }
 }
@@ -1,21 +1,20 @@
 package iudx.catalogue.apiserver;
 
-import java.io.FileInputStream;
-import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
-import java.security.Principal;
 import java.util.logging.Logger;
 
-import javax.net.ssl.SSLPeerUnverifiedException;
-
-import org.apache.commons.codec.digest.DigestUtils;
-import org.json.JSONObject;
-import org.json.JSONTokener;
 import io.vertx.core.AbstractVerticle;
+import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
+import io.vertx.core.Handler;
 import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.eventbus.ReplyException;
 import io.vertx.core.http.ClientAuth;
+import io.vertx.core.http.Http2Settings;
+import io.vertx.core.http.HttpHeaders;
 import io.vertx.core.http.HttpServer;
 import io.vertx.core.http.HttpServerOptions;
 import io.vertx.core.http.HttpServerRequest;
@@ -23,16 +22,26 @@ import io.vertx.core.http.HttpServerResponse;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.net.JksOptions;
+import io.vertx.ext.web.Route;
 import io.vertx.ext.web.Router;
 import io.vertx.ext.web.RoutingContext;
 import io.vertx.ext.web.handler.BodyHandler;
 import io.vertx.ext.web.handler.StaticHandler;
 import io.vertx.groovy.ext.web.handler.StaticHandler_GroovyExtension;
+import iudx.catalogue.codec.JsonEnvelope;
+import iudx.catalogue.database.CollectionVersion;
+import iudx.catalogue.database.DatabaseAction;
+import iudx.catalogue.database.DatabaseReply;
+import iudx.catalogue.database.DatabaseRequest;
+import iudx.catalogue.database.LocalDatabase;
+import iudx.catalogue.metrics.Histogram;
+import iudx.catalogue.metrics.MetricsRegistry;
 
 import java.util.ArrayList;
 import java.util.Base64;
 import java.util.Properties;
-import static org.apache.commons.codec.digest.MessageDigestAlgorithms.SHA_1;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class APIServerVerticle extends AbstractVerticle {
 
@@ -40,17 +49,55 @@ public class APIServerVerticle extends AbstractVerticle {
 
   static final int HTTP_STATUS_OK = 200;
   static final int HTTP_STATUS_CREATED = 201;
+  static final int HTTP_STATUS_ACCEPTED = 202;
   static final int HTTP_STATUS_DELETED = 204;
+  static final int HTTP_STATUS_NOT_MODIFIED = 304;
   static final int HTTP_STATUS_BAD_REQUEST = 400;
   static final int HTTP_STATUS_NOT_FOUND = 404;
   static final int HTTP_STATUS_INTERNAL_SERVER_ERROR = 500;
   static final int HTTP_STATUS_UNAUTHORIZED = 401;
   private ArrayList<String> itemTypes;
+  private CredentialStore credentialStore;
+  private CollectionVersion collectionVersion;
+  private MetricsRegistry metrics;
+  private boolean streamResponses;
+  private boolean conditionalGet;
+  private long streamTimeout;
+  private int maxPageSize;
+  private int compressionMinSize;
+  private LocalDatabase localDatabase;
+  private int bulkBatchSize;
+  private int batchGetMaxIds;
+  private boolean bulkValidation;
 
   @Override
   public void start(Future<Void> startFuture) {
 
     populateItemTypes();
+    JsonEnvelope.registerCodec(vertx);
+
+    credentialStore =
+        CredentialStore.getInstance(
+            vertx,
+            config().getString("user_list", "user.list"),
+            config().getLong("user_list_reload_interval", 5000L));
+
+    collectionVersion = CollectionVersion.getInstance(vertx);
+    metrics = MetricsRegistry.getInstance(vertx);
+    streamResponses = config().getBoolean("stream_responses", false);
+    // By default a streamed batch may take as long to drain as a connection may stay idle
+    int idleTimeout = config().getInteger("idle_timeout", 0);
+    streamTimeout =
+        1000L * config().getInteger("stream_timeout", idleTimeout > 0 ? idleTimeout : 300);
+    maxPageSize = config().getInteger("max_page_size", 1000);
+    conditionalGet = config().getBoolean("conditional_get", true);
+    compressionMinSize = config().getInteger("compression_min_size", 1024);
+    bulkBatchSize = config().getInteger("bulk_batch_size", 1000);
+    batchGetMaxIds = config().getInteger("batch_get_max_ids", 1000);
+    bulkValidation = config().getBoolean("bulk_validation", false);
+    if (!"eventbus".equals(config().getString("database_transport", "local"))) {
+      localDatabase = LocalDatabase.getInstance(vertx);
+    }
 
     Router router = defineApiRouting();
 
@@ -60,11 +107,18 @@ public class APIServerVerticle extends AbstractVerticle {
 
     int port = config().getInteger("http.port", 8443);
 
-    server.requestHandler(router::accept).listen(port);
-
-    logger.info("API Server Verticle started!");
-
-    startFuture.complete();
+    server
+        .requestHandler(router::accept)
+        .listen(
+            port,
+            ar -> {
+              if (ar.succeeded()) {
+                logger.info("API Server Verticle started!");
+                startFuture.complete();
+              } else {
+                startFuture.fail(ar.cause());
+              }
+            });
   }
 
   private void populateItemTypes() {
@@ -78,23 +132,52 @@ public class APIServerVerticle extends AbstractVerticle {
     itemTypes.add("catalogue-item");
   }
 
+  /**
+   * Creates the HTTPS server. Besides the TLS settings, the server can be tuned from the config:
+   * http2 enables HTTP/2 through ALPN with http2_max_concurrent_streams streams per connection,
+   * tcp_no_delay, tcp_keep_alive, tcp_fast_open and reuse_port set the socket options, idle_timeout
+   * (in seconds) closes idle connections and accept_backlog sizes the accept queue. tcp_fast_open and
+   * reuse_port only take effect with a native transport.
+   *
+   * @return The HTTP server
+   */
   private HttpServer createServer() {
     ClientAuth clientAuth = ClientAuth.REQUEST;
     String keystore = config().getString("keystore");
     String keystorePassword = config().getString("keystorePassword");
 
-    HttpServer server =
-        vertx.createHttpServer(
-            new HttpServerOptions()
-                .setSsl(true)
-                .setClientAuth(clientAuth)
-                .setKeyStoreOptions(
-                    new JksOptions().setPath(keystore).setPassword(keystorePassword)));
+    HttpServerOptions options =
+        new HttpServerOptions()
+            .setSsl(true)
+            .setClientAuth(clientAuth)
+            .setCompressionSupported(config().getBoolean("compression", true))
+            .setCompressionLevel(config().getInteger("compression_level", 6))
+            .setKeyStoreOptions(new JksOptions().setPath(keystore).setPassword(keystorePassword))
+            .setTcpNoDelay(config().getBoolean("tcp_no_delay", true))
+            .setTcpKeepAlive(config().getBoolean("tcp_keep_alive", false))
+            .setTcpFastOpen(config().getBoolean("tcp_fast_open", false))
+            .setReusePort(config().getBoolean("reuse_port", false))
+            .setIdleTimeout(config().getInteger("idle_timeout", 0))
+            .setAcceptBacklog(config().getInteger("accept_backlog", -1));
+
+    if (config().getBoolean("http2", false)) {
+      options
+          .setUseAlpn(true)
+          .setInitialSettings(
+              new Http2Settings()
+                  .setMaxConcurrentStreams(
+                      config().getLong("http2_max_concurrent_streams", 100L)));
+    }
+
+    HttpServer server = vertx.createHttpServer(options);
     return server;
   }
 
   private Router defineApiRouting() {
     Router router = Router.router(vertx);
+    router.route().handler(this::timeRequest);
+    // Streamed uploads are parsed as they arrive, so they are routed before the body is buffered
+    router.post("/create/catalogue/resource-item/bulk/:bulkId").handler(this::bulkCreateStream);
     router.route().handler(BodyHandler.create());
 
     router
@@ -116,6 +199,10 @@ public class APIServerVerticle extends AbstractVerticle {
     router.get("/list/catalogue/:itemtype").handler(this::list);
     router.get("/search/catalogue/attribute").handler(this::searchAttribute);
     router.get("/count/catalogue/attribute").handler(this::count);
+    router.post("/items/batch-get").handler(this::batchGet);
+    router.get("/stats/catalogue/cache").handler(this::cacheStats);
+    router.get("/stats/catalogue/indexes").handler(this::indexStats);
+    router.get("/metrics").handler(this::metrics);
     router.post("/create/catalogue/:itemtype").handler(this::create);
     router.put("/update/catalogue/:itemtype/:id").handler(this::update);
     router.delete("/remove/catalogue/:itemtype/:id").handler(this::delete);
@@ -123,6 +210,7 @@ public class APIServerVerticle extends AbstractVerticle {
     router.post("/create/catalogue/resource-item/bulk/:bulkId").handler(this::bulkCreate);
     router.patch("/update/catalogue/resource-item/bulk/:bulkId").handler(this::bulkUpdate);
     router.delete("/remove/catalogue/resource-item/bulk/:bulkId").handler(this::bulkDelete);
+    router.get("/jobs/:id").handler(this::getJob);
 
     router.route("/assets/*").handler(StaticHandler.create("ui/assets"));
     return router;
@@ -148,14 +236,13 @@ public class APIServerVerticle extends AbstractVerticle {
   }
 
   /**
-   * Checks if the user has necessary permission to write or delete from the database
+   * Checks if the user has necessary permission to write or delete from the database. The user is
+   * looked up in the shared CredentialStore instead of reading the file on every request.
    *
-   * @param event The server request
-   * @param path The URL to which the request is sent
-   * @param file_path The path of the file which contains the list of users and their permissions
+   * @param routingContext The server request
    * @return
    */
-  private boolean authenticateRequest(RoutingContext routingContext, String file_path) {
+  private boolean authenticateRequest(RoutingContext routingContext) {
 
     HttpServerRequest request = routingContext.request();
     boolean allowed = false;
@@ -179,27 +266,24 @@ public class APIServerVerticle extends AbstractVerticle {
           handle401(routingContext, "Use Basic HTTP authorization");
         } else {
           if (userId != null && password != null) {
-            try (InputStream inputStream = new FileInputStream(file_path)) {
-              JSONObject users = new JSONObject(new JSONTokener(inputStream));
-              JSONObject user;
-              if (users.has(userId)) {
-                user = users.getJSONObject(userId);
-                if (password.equals(user.getString("password"))) {
+            if (!credentialStore.isLoaded()) {
+              handle500(routingContext);
+            } else {
+              CredentialStore.User user = credentialStore.getUser(userId);
+              if (user != null) {
+                if (user.hasPassword(password)) {
                   allowed = true;
                 } else {
                   handle400(routingContext, "Your password is invalid");
                 }
 
-                if (allowed && !user.getBoolean("write_permission")) {
+                if (allowed && !user.hasWritePermission()) {
                   allowed = false;
                   handle401(routingContext, "You do not have write access to the server");
                 }
               } else {
                 handle400(routingContext, "User " + userId + "is not registered");
               }
-
-            } catch (Exception e) {
-              handle500(routingContext);
             }
 
           } else {
@@ -218,88 +302,32 @@ public class APIServerVerticle extends AbstractVerticle {
     return allowed;
   }
 
+  /**
+   * Checks that the client presented a class 3, 4 or 5 certificate. The classification is cached
+   * in the TLS session, so it is computed only once per connection.
+   *
+   * @param routingContext The server request
+   * @return true if the certificate is valid
+   */
   private boolean decodeCertificate(RoutingContext routingContext) {
 
-    boolean status = false;
-
-    try {
-
-      Principal _PeerPrincipal =
-          routingContext.request().connection().sslSession().getPeerPrincipal();
-      String PeerPrincipal = _PeerPrincipal.toString();
-      String[] PeerPrincipalArray = PeerPrincipal.split(",");
-      String PeerPrincipal_OID = PeerPrincipalArray[0];
-      String PeerPrincipal_T = PeerPrincipalArray[1];
-      String PeerPrincipal_SURNAME = PeerPrincipalArray[2];
-      String PeerPrincipal_GIVENNAME = PeerPrincipalArray[3];
-      String PeerPrincipal_ST = PeerPrincipalArray[4];
-      String PeerPrincipal_C = PeerPrincipalArray[5];
-      String PeerPrincipal_OU = PeerPrincipalArray[6];
-      String PeerPrincipal_O = PeerPrincipalArray[7];
-      String PeerPrincipal_EMAILADDRESS = PeerPrincipalArray[8];
-
-      logger.info("getPeerPrincipal is " + PeerPrincipal);
-      logger.info("PeerPrincipal_OID is " + PeerPrincipal_OID);
-      logger.info("PeerPrincipal_T is " + PeerPrincipal_T);
-      logger.info("PeerPrincipal_SURNAME is " + PeerPrincipal_SURNAME);
-      logger.info("PeerPrincipal_GIVENNAME is " + PeerPrincipal_GIVENNAME);
-      logger.info("PeerPrincipal_ST is " + PeerPrincipal_ST);
-      logger.info("PeerPrincipal_C is " + PeerPrincipal_C);
-      logger.info("PeerPrincipal_OU is " + PeerPrincipal_OU);
-      logger.info("PeerPrincipal_O is " + PeerPrincipal_O);
-      logger.info("PeerPrincipal_EMAILADDRESS is " + PeerPrincipal_EMAILADDRESS);
-
-      Principal _LocalPrincipal =
-          routingContext.request().connection().sslSession().getLocalPrincipal();
-      String LocalPrincipal = _LocalPrincipal.toString();
-      String[] LocalPrincipalArray = LocalPrincipal.split(",");
-      String LocalPrincipal_CN = LocalPrincipalArray[0];
-      String LocalPrincipal_OU = LocalPrincipalArray[1];
-      String LocalPrincipal_O = LocalPrincipalArray[2];
-      String LocalPrincipal_L = LocalPrincipalArray[3];
-      String LocalPrincipal_ST = PeerPrincipalArray[4];
-      String LocalPrincipal_C = PeerPrincipalArray[5];
-
-      logger.info("getLocalPrincipal is " + LocalPrincipal);
-      logger.info("LocalPrincipal_CN is " + LocalPrincipal_CN);
-      logger.info("LocalPrincipal_OU is " + LocalPrincipal_OU);
-      logger.info("LocalPrincipal_O is " + LocalPrincipal_O);
-      logger.info("LocalPrincipal_L is " + LocalPrincipal_L);
-      logger.info("LocalPrincipal_ST is " + LocalPrincipal_ST);
-      logger.info("LocalPrincipal_C is " + LocalPrincipal_C);
-
-      String[] email = PeerPrincipal_EMAILADDRESS.split("=");
-      String[] emailID = email[1].split("@");
-      String userName = emailID[0];
-      String domain = emailID[1];
-      logger.info("PeerPrincipal_EMAILADDRESS is " + emailID);
-      logger.info("userName is " + userName);
-      logger.info("domain is " + domain);
-
-      String userName_SHA_1 = new DigestUtils(SHA_1).digestAsHex(userName);
-      logger.info("userName in SHA-1 is " + userName_SHA_1);
-      String emailID_SHA_1 = userName_SHA_1 + "@" + domain;
-      logger.info("emailID in SHA-1 is " + emailID_SHA_1);
-
-      if (PeerPrincipal_OID.contains("class:3")
-          || PeerPrincipal_OID.contains("class:4")
-          || PeerPrincipal_OID.contains("class:5")) {
-        status = true;
-        logger.info("Valid Certificate");
-      } else {
-        status = false;
-        logger.info("Invalid Certificate");
-      }
+    CertificateInfo certificate =
+        CertificateInfo.of(routingContext.request().connection().sslSession());
 
-    } catch (SSLPeerUnverifiedException e) {
-      status = false;
+    if (certificate.isValid()) {
+      logger.fine("Valid Certificate");
+    } else {
+      logger.info("Invalid Certificate");
     }
-
-    return status;
+    return certificate.isValid();
   }
 
   private void list(RoutingContext routingContext) {
     String currentType = routingContext.request().getParam("itemtype");
+    // Tags are written after the items and their hits without bumping the collection version
+    if (!currentType.equals("tags") && notModified(routingContext)) {
+      return;
+    }
 
     if (currentType.equals("item-types")) {
       JsonArray allTypes = new JsonArray(itemTypes);
@@ -307,11 +335,21 @@ public class APIServerVerticle extends AbstractVerticle {
       handle200(routingContext, reply);
     } else if (currentType.equals("tags")) {
       JsonObject request_body = new JsonObject();
-      databaseHandler("get-tags", routingContext, request_body);
+      databaseHandler(DatabaseAction.GET_TAGS, routingContext, request_body);
     } else if (itemTypes.contains(currentType)) {
       JsonObject request_body = new JsonObject();
       request_body.put("item-type", currentType);
-      databaseHandler("list", routingContext, request_body);
+      HttpServerRequest request = routingContext.request();
+      if (!preparePaging(
+          routingContext, request_body, request.getParam("limit"), request.getParam("cursor"))) {
+        return;
+      }
+      // A page is bounded by limit, so it is not worth streaming
+      if (streamResponses && !request_body.containsKey("limit")) {
+        databaseStreamHandler(DatabaseAction.LIST, routingContext, request_body);
+      } else {
+        databaseHandler(DatabaseAction.LIST, routingContext, request_body);
+      }
     } else {
       handle400(routingContext, currentType + " does not exist in the catalogue. ");
     }
@@ -332,7 +370,7 @@ public class APIServerVerticle extends AbstractVerticle {
     }
 
     if (decodeCertificate(routingContext)) {
-      if (authenticateRequest(routingContext, "user.list")) {
+      if (authenticateRequest(routingContext)) {
         try {
           JsonObject request_body = routingContext.getBodyAsJson();
           request_body.put("id", "");
@@ -348,25 +386,23 @@ public class APIServerVerticle extends AbstractVerticle {
             }
           }
 
-          vertx
-              .eventBus()
-              .send(
-                  "validator",
-                  request_body,
-                  validator_action,
-                  validator_reply -> {
-                    if (validator_reply.succeeded()) {
-                      String itemType = request.getParam("itemtype");
-                      request_body.put("item-type", itemType);
-                      if (itemTypes.contains(itemType)) {
-                        handle400(routingContext, "No such item-type exists");
-                      } else {
-                        databaseHandler("create", routingContext, request_body);
-                      }
-                    } else {
-                      handle500(routingContext);
-                    }
-                  });
+          send(
+              "validator",
+              request_body,
+              validator_action,
+              validator_reply -> {
+                if (validator_reply.succeeded()) {
+                  String itemType = request.getParam("itemtype");
+                  request_body.put("item-type", itemType);
+                  if (!itemTypes.contains(itemType)) {
+                    handle400(routingContext, "No such item-type exists");
+                  } else {
+                    databaseHandler(DatabaseAction.CREATE, routingContext, request_body);
+                  }
+                } else {
+                  handle500(routingContext);
+                }
+              });
 
         } catch (Exception e) {
           handle400(routingContext, "Invalid item: Not a Json Object");
@@ -383,7 +419,7 @@ public class APIServerVerticle extends AbstractVerticle {
     HttpServerRequest request = routingContext.request();
 
     if (decodeCertificate(routingContext)) {
-      if (authenticateRequest(routingContext, "user.list")) {
+      if (authenticateRequest(routingContext)) {
         try {
           String bulkId = request.getParam("bulkId");
           JsonArray request_body = routingContext.getBodyAsJsonArray();
@@ -391,7 +427,19 @@ public class APIServerVerticle extends AbstractVerticle {
           request_json_object.put("items", request_body);
           request_json_object.put("bulk-id", bulkId);
 
-          databaseHandler("bulkcreate", routingContext, request_json_object);
+          Boolean validate = validateBulk(routingContext);
+          if (validate == null) {
+            return;
+          }
+          if (isAsync(routingContext)) {
+            request_json_object.put("validate", validate);
+            submitJob(DatabaseAction.BULK_CREATE, routingContext, request_json_object);
+          } else {
+            databaseHandler(
+                new DatabaseRequest(DatabaseAction.BULK_CREATE, request_json_object)
+                    .putHeader("validate", validate.toString()),
+                routingContext);
+          }
 
         } catch (Exception e) {
           handle400(routingContext, "Invalid item: Not a Json Object");
@@ -404,21 +452,157 @@ public class APIServerVerticle extends AbstractVerticle {
     }
   }
 
+  /**
+   * Bulk creates the items of an upload in newline-delimited JSON, sent with the
+   * application/x-ndjson content type or the stream parameter set to true, without buffering the
+   * upload. Other uploads are left to bulkCreate.
+   *
+   * @param routingContext The server request
+   */
+  private void bulkCreateStream(RoutingContext routingContext) {
+    HttpServerRequest request = routingContext.request();
+    String contentType = request.getHeader("content-type");
+    boolean ndjson = contentType != null && contentType.startsWith("application/x-ndjson");
+    if (!ndjson && !"true".equals(request.getParam("stream"))) {
+      routingContext.next();
+      return;
+    }
+
+    if (decodeCertificate(routingContext)) {
+      if (authenticateRequest(routingContext)) {
+        Boolean validate = validateBulk(routingContext);
+        if (validate == null) {
+          return;
+        }
+        new BulkIngest(
+                request,
+                request.getParam("bulkId"),
+                bulkBatchSize,
+                (request_body, replyHandler) ->
+                    database(
+                        new DatabaseRequest(DatabaseAction.BULK_CREATE, request_body)
+                            .putHeader("validate", validate.toString()),
+                        database_reply -> {
+                          if (database_reply.succeeded()) {
+                            replyHandler.handle(
+                                Future.succeededFuture(database_reply.result().getBody()));
+                          } else {
+                            replyHandler.handle(Future.failedFuture(database_reply.cause()));
+                          }
+                        }))
+            .start();
+      } else {
+        handle401(routingContext, "Unauthorised");
+      }
+    } else {
+      handle400(routingContext, "Certificate 'authenticaton' error");
+    }
+  }
+
+  /**
+   * Splits the decoded query string into its parameters in a single pass. Only the first '=' of a
+   * parameter separates the name from the value, and parameters without a value are ignored.
+   *
+   * @param query The decoded query string
+   * @return The parameters
+   */
   private JsonObject prepareQuery(String query) {
     JsonObject request_body = new JsonObject();
-    if (!query.equals("") && query != null) {
-      String[] queryParams = query.split("\\&");
-      int queryLen = queryParams.length;
-
-      for (int i = 0; i < queryLen; i++) {
-        String key = queryParams[i].split("\\=")[0];
-        String val = queryParams[i].split("\\=")[1];
-        request_body.put(key, val);
+    if (query == null) {
+      return request_body;
+    }
+
+    int start = 0;
+    int length = query.length();
+    while (start < length) {
+      int end = query.indexOf('&', start);
+      if (end < 0) {
+        end = length;
+      }
+      int eq = query.indexOf('=', start);
+      if (eq > start && eq < end) {
+        request_body.put(query.substring(start, eq), query.substring(eq + 1, end));
       }
+      start = end + 1;
     }
     return request_body;
   }
 
+  /**
+   * Answers a conditional GET. The ETag of a read is derived from the collection version, which is
+   * bumped by every write, and the request URI, so an unchanged response is detected without
+   * querying the database. The ETag is kept in the routing context and sent with the 200 reply.
+   *
+   * <p>The version only counts the writes of the databases of this Vert.x instance, so conditional
+   * GETs are answered only when requests are executed on a local database and conditional_get is
+   * not disabled, which it must be when other instances write to the same database.
+   *
+   * @param routingContext The server request
+   * @return true if the client already has the current response and 304 has been sent
+   */
+  private boolean notModified(RoutingContext routingContext) {
+    if (!conditionalGet || localDatabase == null || !localDatabase.isAvailable()) {
+      return false;
+    }
+    String etag = collectionVersion.etag(routingContext.request().uri());
+    routingContext.put("etag", etag);
+
+    String ifNoneMatch = routingContext.request().getHeader("If-None-Match");
+    if (ifNoneMatch != null) {
+      for (String candidate : ifNoneMatch.split(",")) {
+        candidate = candidate.trim();
+        if (candidate.startsWith("W/")) {
+          candidate = candidate.substring(2);
+        }
+        if (candidate.equals(etag) || candidate.equals("*")) {
+          routingContext
+              .response()
+              .setStatusCode(HTTP_STATUS_NOT_MODIFIED)
+              .putHeader("ETag", etag)
+              .end();
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Adds the limit and cursor of a paged request to the request to the database. The cursor is the
+   * opaque token returned in the X-Next-Cursor header of the previous page. A cursor without a
+   * limit returns pages of max_page_size items.
+   *
+   * @param routingContext The server request
+   * @param request_body The request to the database
+   * @param limit The number of items in a page, may be null
+   * @param cursor The cursor of the page, may be null
+   * @return false if the limit is invalid, in which case the request has been answered
+   */
+  private boolean preparePaging(
+      RoutingContext routingContext, JsonObject request_body, String limit, String cursor) {
+
+    if (limit == null && cursor == null) {
+      return true;
+    }
+
+    int pageSize;
+    try {
+      pageSize = (limit == null) ? maxPageSize : Integer.parseInt(limit);
+    } catch (NumberFormatException e) {
+      pageSize = -1;
+    }
+    if (pageSize < 1 || pageSize > maxPageSize) {
+      handle400(routingContext, "Invalid value: limit must be between 1 and " + maxPageSize);
+      return false;
+    }
+
+    request_body.put("limit", pageSize);
+    if (cursor != null) {
+      request_body.put("cursor", cursor);
+    }
+    return true;
+  }
+
   /**
    * Searches the database based on the given query and displays only those fields present in
    * attributeFilter.
@@ -427,6 +611,9 @@ public class APIServerVerticle extends AbstractVerticle {
    */
   private void searchAttribute(RoutingContext routingContext) {
 
+    if (notModified(routingContext)) {
+      return;
+    }
     HttpServerRequest request = routingContext.request();
 
     String query;
@@ -439,11 +626,68 @@ public class APIServerVerticle extends AbstractVerticle {
     logger.info(query);
 
     JsonObject request_body = prepareQuery(query);
+    request_body.remove("pretty");
+    String limit = (String) request_body.remove("limit");
+    String cursor = (String) request_body.remove("cursor");
+    if (!preparePaging(routingContext, request_body, limit, cursor)) {
+      return;
+    }
 
-    databaseHandler("search-attribute", routingContext, request_body);
+    if (streamResponses && !request_body.containsKey("limit")) {
+      databaseStreamHandler(DatabaseAction.SEARCH_ATTRIBUTE, routingContext, request_body);
+    } else {
+      databaseHandler(DatabaseAction.SEARCH_ATTRIBUTE, routingContext, request_body);
+    }
+  }
+
+  /**
+   * Returns the items with the ids listed in the request body, in one query. The body is of the
+   * form {"ids": [...], "attribute-filter": "(a,b)"}, the attribute filter being optional. Every
+   * item of the reply has its id, whether or not the attribute filter includes it.
+   *
+   * @param routingContext The server request
+   */
+  private void batchGet(RoutingContext routingContext) {
+    JsonObject body;
+    try {
+      body = routingContext.getBodyAsJson();
+    } catch (Exception e) {
+      handle400(routingContext, "Invalid request: Not a Json Object");
+      return;
+    }
+    if (body == null || !(body.getValue("ids") instanceof JsonArray)) {
+      handle400(routingContext, "Invalid request: ids must be an array");
+      return;
+    }
+
+    JsonArray ids = body.getJsonArray("ids");
+    if (ids.isEmpty() || ids.size() > batchGetMaxIds) {
+      handle400(routingContext, "Invalid request: ids must have 1 to " + batchGetMaxIds + " ids");
+      return;
+    }
+    for (Object id : ids) {
+      if (!(id instanceof String)) {
+        handle400(routingContext, "Invalid request: ids must be strings");
+        return;
+      }
+    }
+
+    JsonObject request_body = new JsonObject().put("ids", ids);
+    Object attributeFilter = body.getValue("attribute-filter");
+    if (attributeFilter != null) {
+      if (!(attributeFilter instanceof String)) {
+        handle400(routingContext, "Invalid request: attribute-filter must be a string");
+        return;
+      }
+      request_body.put("attribute-filter", attributeFilter);
+    }
+    databaseHandler(DatabaseAction.BATCH_GET, routingContext, request_body);
   }
 
   private void count(RoutingContext routingContext) {
+    if (notModified(routingContext)) {
+      return;
+    }
     HttpServerRequest request = routingContext.request();
 
     String query;
@@ -456,8 +700,17 @@ public class APIServerVerticle extends AbstractVerticle {
     logger.info(query);
 
     JsonObject request_body = prepareQuery(query);
+    request_body.remove("pretty");
 
-    databaseHandler("count", routingContext, request_body);
+    databaseHandler(DatabaseAction.COUNT, routingContext, request_body);
+  }
+
+  private void cacheStats(RoutingContext routingContext) {
+    databaseHandler(DatabaseAction.CACHE_STATS, routingContext, new JsonObject());
+  }
+
+  private void indexStats(RoutingContext routingContext) {
+    databaseHandler(DatabaseAction.INDEX_STATS, routingContext, new JsonObject());
   }
 
   /**
@@ -469,7 +722,7 @@ public class APIServerVerticle extends AbstractVerticle {
     HttpServerRequest request = routingContext.request();
 
     if (decodeCertificate(routingContext)) {
-      if (authenticateRequest(routingContext, "user.list")) {
+      if (authenticateRequest(routingContext)) {
         JsonObject request_body = new JsonObject();
 
         String id = request.getParam("id");
@@ -480,7 +733,7 @@ public class APIServerVerticle extends AbstractVerticle {
         if (!itemTypes.contains(itemType)) {
           handle400(routingContext, "No such item-type exists!");
         } else {
-          databaseHandler("delete", routingContext, request_body);
+          databaseHandler(DatabaseAction.DELETE, routingContext, request_body);
         }
       } else {
         handle401(routingContext, "Unauthorised");
@@ -494,13 +747,17 @@ public class APIServerVerticle extends AbstractVerticle {
     HttpServerRequest request = routingContext.request();
 
     if (decodeCertificate(routingContext)) {
-      if (authenticateRequest(routingContext, "user.list")) {
+      if (authenticateRequest(routingContext)) {
         JsonObject request_body = new JsonObject();
 
         String bulkId = request.getParam("bulkId");
         request_body.put("bulk-id", bulkId);
 
-        databaseHandler("bulkdelete", routingContext, request_body);
+        if (isAsync(routingContext)) {
+          submitJob(DatabaseAction.BULK_DELETE, routingContext, request_body);
+        } else {
+          databaseHandler(DatabaseAction.BULK_DELETE, routingContext, request_body);
+        }
       } else {
         handle401(routingContext, "Unauthorised");
       }
@@ -516,14 +773,14 @@ public class APIServerVerticle extends AbstractVerticle {
   private void update(RoutingContext routingContext) {
     HttpServerRequest request = routingContext.request();
     if (decodeCertificate(routingContext)) {
-      if (authenticateRequest(routingContext, "user.list")) {
+      if (authenticateRequest(routingContext)) {
         try {
           JsonObject request_body = routingContext.getBodyAsJson();
           String id = request.getParam("id");
           if (id.equals(request_body.getString("id"))) {
             String itemType = request.getParam("itemtype");
             request_body.put("item-type", itemType);
-            databaseHandler("update", routingContext, request_body);
+            databaseHandler(DatabaseAction.UPDATE, routingContext, request_body);
           } else {
             handle400(routingContext, "Ids provided in the URI and object does not match");
           }
@@ -541,12 +798,16 @@ public class APIServerVerticle extends AbstractVerticle {
   private void bulkUpdate(RoutingContext routingContext) {
     HttpServerRequest request = routingContext.request();
     if (decodeCertificate(routingContext)) {
-      if (authenticateRequest(routingContext, "user.list")) {
+      if (authenticateRequest(routingContext)) {
         try {
           JsonObject request_body = routingContext.getBodyAsJson();
           String bulkId = request.getParam("bulkId");
           request_body.put("bulk-id", bulkId);
-          databaseHandler("bulkupdate", routingContext, request_body);
+          if (isAsync(routingContext)) {
+            submitJob(DatabaseAction.BULK_UPDATE, routingContext, request_body);
+          } else {
+            databaseHandler(DatabaseAction.BULK_UPDATE, routingContext, request_body);
+          }
 
         } catch (Exception e) {
           handle400(routingContext, "Invalid item: Not a Json Object");
@@ -560,82 +821,406 @@ public class APIServerVerticle extends AbstractVerticle {
   }
 
   private void databaseHandler(
-      String action, RoutingContext routingContext, JsonObject request_body) {
+      DatabaseAction action, RoutingContext routingContext, JsonObject request_body) {
+    databaseHandler(new DatabaseRequest(action, request_body), routingContext);
+  }
+
+  private void databaseHandler(DatabaseRequest request, RoutingContext routingContext) {
+    DatabaseAction action = request.getAction();
+
+    database(
+        request,
+        database_reply -> {
+          if (database_reply.succeeded()) {
+            DatabaseReply reply = database_reply.result();
+            switch (action) {
+              case LIST:
+              case SEARCH_ATTRIBUTE:
+                String nextCursor = reply.getHeader("next-cursor");
+                if (nextCursor != null) {
+                  routingContext.response().putHeader("X-Next-Cursor", nextCursor);
+                }
+                handle200(routingContext, (JsonArray) reply.getBody());
+                break;
+              case GET_TAGS:
+              case BATCH_GET:
+                handle200(routingContext, (JsonArray) reply.getBody());
+                break;
+              case COUNT:
+              case CACHE_STATS:
+              case INDEX_STATS:
+                handle200(routingContext, (JsonObject) reply.getBody());
+                break;
+              case DELETE:
+                handle204(routingContext);
+                break;
+              case CREATE:
+                String id = reply.getBody().toString();
+                handle201(routingContext, id);
+                break;
+              case UPDATE:
+                String status = reply.getBody().toString();
+                JsonObject s = new JsonObject().put("status", status);
+                handle200(routingContext, s);
+                break;
+              case BULK_CREATE:
+              case BULK_UPDATE:
+                handle200(routingContext, (JsonObject) reply.getBody());
+                break;
+              case BULK_DELETE:
+                handle204(routingContext);
+                break;
+            }
+          } else {
+            if (database_reply.cause().getMessage().equalsIgnoreCase("Failure")) {
+              handle500(routingContext);
+            } else {
+              handle400(routingContext, database_reply.cause().getMessage());
+            }
+          }
+        });
+  }
 
-    DeliveryOptions database_action = new DeliveryOptions();
-    database_action.addHeader("action", action);
+  /**
+   * Executes a database request. When a database is deployed in this Vert.x instance, the request
+   * is executed directly on it, otherwise it is sent on the event bus. database_transport set to
+   * eventbus always uses the event bus.
+   *
+   * @param request The request
+   * @param replyHandler The handler of the reply
+   */
+  private void database(DatabaseRequest request, Handler<AsyncResult<DatabaseReply>> replyHandler) {
+    if (localDatabase != null && localDatabase.isAvailable()) {
+      localDatabase.execute(request).setHandler(replyHandler);
+      return;
+    }
 
-    vertx
-        .eventBus()
-        .send(
-            "database",
+    send(
+        "database",
+        request.getBody(),
+        request.toDeliveryOptions(),
+        database_reply -> {
+          if (database_reply.succeeded()) {
+            replyHandler.handle(Future.succeededFuture(DatabaseReply.of(database_reply.result())));
+          } else {
+            replyHandler.handle(Future.failedFuture(database_reply.cause()));
+          }
+        });
+  }
+
+  /**
+   * Decides whether the items of a bulk create are validated. The skip_validation header of the
+   * request wins over the bulk_validation setting, which is off by default.
+   *
+   * @param routingContext The server request
+   * @return true to validate the items, null if the header is invalid, in which case the request
+   *     has been answered with 400
+   */
+  private Boolean validateBulk(RoutingContext routingContext) {
+    String skip_validation = routingContext.request().getHeader("skip_validation");
+    if (skip_validation == null) {
+      return bulkValidation;
+    }
+    skip_validation = skip_validation.toLowerCase();
+    if (!("true".equals(skip_validation)) && !("false".equals(skip_validation))) {
+      handle400(routingContext, "Invalid value: skip_validation is not a boolean");
+      return null;
+    }
+    return "false".equals(skip_validation);
+  }
+
+  private boolean isAsync(RoutingContext routingContext) {
+    return "true".equals(routingContext.request().getParam("async"));
+  }
+
+  /**
+   * Submits a bulk operation as a background job and replies 202 with the id of the job, which can
+   * be polled at /jobs/:id
+   *
+   * @param action The bulk action
+   * @param routingContext The server request
+   * @param request_body The request to the database
+   */
+  private void submitJob(
+      DatabaseAction action, RoutingContext routingContext, JsonObject request_body) {
+
+    DeliveryOptions job_action = new DeliveryOptions();
+    job_action.addHeader("action", "submit-job");
+    JsonObject job = new JsonObject().put("action", action.getName()).put("request", request_body);
+
+    send(
+        "jobs",
+        job,
+        job_action,
+        job_reply -> {
+          if (job_reply.succeeded()) {
+            JsonObject reply = (JsonObject) job_reply.result().body();
+            HttpServerResponse response = routingContext.response();
+            response
+                .setStatusCode(HTTP_STATUS_ACCEPTED)
+                .putHeader("Location", "/jobs/" + reply.getString("job-id"))
+                .putHeader("content-type", "application/json; charset=utf-8");
+            end(response, encode(routingContext, reply));
+          } else {
+            handle500(routingContext);
+          }
+        });
+  }
+
+  /**
+   * Reports the progress of a background job
+   *
+   * @param routingContext The server request
+   */
+  private void getJob(RoutingContext routingContext) {
+    if (decodeCertificate(routingContext)) {
+      if (authenticateRequest(routingContext)) {
+        DeliveryOptions job_action = new DeliveryOptions();
+        job_action.addHeader("action", "get-job");
+        JsonObject request_body =
+            new JsonObject().put("job-id", routingContext.request().getParam("id"));
+
+        send(
+            "jobs",
             request_body,
-            database_action,
-            database_reply -> {
-              if (database_reply.succeeded()) {
-                switch (action) {
-                  case "list":
-                  case "get-tags":
-                  case "search-attribute":
-                    handle200(routingContext, (JsonArray) database_reply.result().body());
-                    break;
-                  case "count":
-                    handle200(routingContext, (JsonObject) database_reply.result().body());
-                    break;
-                  case "delete":
-                    handle204(routingContext);
-                    break;
-                  case "create":
-                    String id = database_reply.result().body().toString();
-                    handle201(routingContext, id);
-                    break;
-                  case "update":
-                    String status = database_reply.result().body().toString();
-                    JsonObject s = new JsonObject().put("status", status);
-                    handle200(routingContext, s);
-                    break;
-                  case "bulkcreate":
-                    JsonObject reply = (JsonObject) database_reply.result().body();
-                    handle200(routingContext, reply);
-                    break;
-                  case "bulkdelete":
-                    handle204(routingContext);
-                    break;
-                  case "bulkupdate":
-                    JsonObject rep = (JsonObject) database_reply.result().body();
-                    handle200(routingContext, rep);
-                    break;
-                }
+            job_action,
+            job_reply -> {
+              if (job_reply.succeeded()) {
+                handle200(routingContext, (JsonObject) job_reply.result().body());
+              } else if (job_reply.cause() instanceof ReplyException
+                  && ((ReplyException) job_reply.cause()).failureCode() == HTTP_STATUS_NOT_FOUND) {
+                HttpServerResponse response = routingContext.response();
+                response
+                    .setStatusCode(HTTP_STATUS_NOT_FOUND)
+                    .putHeader("content-type", "application/json; charset=utf-8");
+                end(response, getStatusInJson(routingContext, "No such job"));
               } else {
-                if (database_reply.cause().getMessage().equalsIgnoreCase("Failure")) {
-                  handle500(routingContext);
-                } else {
-                  handle400(routingContext, database_reply.cause().getMessage());
-                }
+                handle500(routingContext);
               }
             });
+      } else {
+        handle401(routingContext, "Unauthorised");
+      }
+    } else {
+      handle400(routingContext, "Certificate 'authenticaton' error");
+    }
+  }
+
+  /**
+   * Streams the result of a list or search to the client as a chunked JSON array. The database
+   * verticle sends the documents in batches to a temporary address and reads the next batch from
+   * its cursor only after the current one is acknowledged. A batch is acknowledged once it has been
+   * written to the response and the response write queue has drained, so a slow client slows down
+   * the cursor instead of growing the heap. A batch which is not acknowledged within stream_timeout
+   * seconds ends the stream.
+   *
+   * @param action The database action, either list or search-attribute
+   * @param routingContext The server request
+   * @param request_body The request to the database
+   */
+  private void databaseStreamHandler(
+      DatabaseAction action, RoutingContext routingContext, JsonObject request_body) {
+
+    HttpServerResponse response = routingContext.response();
+    String address = "database.stream." + UUID.randomUUID().toString();
+    boolean[] first = {true};
+
+    MessageConsumer<Object> consumer = vertx.eventBus().consumer(address);
+    consumer.handler(
+        batch -> {
+          if (batch.headers().contains("failure")) {
+            consumer.unregister();
+            if (!response.headWritten()) {
+              handle500(routingContext);
+            } else {
+              // Part of the array has been sent, closing signals an incomplete response
+              response.close();
+            }
+            return;
+          }
+          if (!response.headWritten()) {
+            putETag(routingContext);
+            response
+                .setChunked(true)
+                .setStatusCode(HTTP_STATUS_OK)
+                .putHeader("content-type", "application/json; charset=utf-8")
+                .write("[");
+          }
+          for (Object doc : (JsonArray) JsonEnvelope.unwrap(batch.body())) {
+            if (!first[0]) {
+              response.write(",");
+            }
+            first[0] = false;
+            response.write(((JsonObject) doc).encode());
+          }
+
+          if (batch.headers().contains("end")) {
+            consumer.unregister();
+            response.end("]");
+          } else if (response.writeQueueFull()) {
+            response.drainHandler(v -> batch.reply("next"));
+          } else {
+            batch.reply("next");
+          }
+        });
+
+    // Unregistering makes the next batch fail, which stops the cursor
+    response.closeHandler(v -> consumer.unregister());
+
+    // The batches are sent on the event bus, so a streamed request always goes through it
+    DatabaseRequest request =
+        new DatabaseRequest(action, request_body)
+            .putHeader("stream-address", address)
+            .putHeader("stream-timeout", String.valueOf(streamTimeout));
+
+    send(
+        "database",
+        request.getBody(),
+        request.toDeliveryOptions(),
+        database_reply -> {
+          if (database_reply.failed()) {
+            consumer.unregister();
+            if (database_reply.cause().getMessage().equalsIgnoreCase("Failure")) {
+              handle500(routingContext);
+            } else {
+              handle400(routingContext, database_reply.cause().getMessage());
+            }
+          }
+        });
   }
 
-  private String getStatusInJson(String status) {
-    return (new JsonObject().put("Status", status)).encodePrettily();
+  private boolean isPretty(RoutingContext routingContext) {
+    return "true".equals(routingContext.request().getParam("pretty"));
+  }
+
+  private String encode(RoutingContext routingContext, JsonObject reply) {
+    return isPretty(routingContext) ? reply.encodePrettily() : reply.encode();
+  }
+
+  private String encode(RoutingContext routingContext, JsonArray reply) {
+    return isPretty(routingContext) ? reply.encodePrettily() : reply.encode();
+  }
+
+  /**
+   * Sends a request on the event bus. The round-trip time is recorded per address and action, and
+   * the number of requests waiting for a reply is kept as a gauge per address, which shows how far
+   * the database and validator verticles are behind. JSON bodies are sent in a JsonEnvelope, which is
+   * not copied on local delivery, so the body must not be modified once it has been sent.
+   *
+   * @param address The address of the verticle
+   * @param body The request
+   * @param options The delivery options, with the action header
+   * @param replyHandler The handler of the reply
+   */
+  private void send(
+      String address,
+      Object body,
+      DeliveryOptions options,
+      Handler<AsyncResult<Message<Object>>> replyHandler) {
+
+    AtomicLong pending =
+        metrics.level(
+            "iudx_eventbus_pending_requests",
+            "Event bus requests waiting for a reply",
+            "address",
+            address);
+    Histogram timer =
+        metrics.timer(
+            "iudx_eventbus_request_duration_seconds",
+            "Round-trip time of event bus requests",
+            "address",
+            address,
+            "action",
+            String.valueOf(options.getHeaders().get("action")));
+
+    pending.incrementAndGet();
+    vertx
+        .eventBus()
+        .send(
+            address,
+            JsonEnvelope.wrap(body),
+            options,
+            MetricsRegistry.timed(
+                timer,
+                (AsyncResult<Message<Object>> reply) -> {
+                  pending.decrementAndGet();
+                  if (reply.succeeded()) {
+                    replyHandler.handle(
+                        Future.succeededFuture(JsonEnvelope.receive(reply.result())));
+                  } else {
+                    replyHandler.handle(reply);
+                  }
+                }));
+  }
+
+  /**
+   * Records the duration of every request by route and method. The route is the path of the last
+   * route that handled the request, so /create/catalogue/:itemtype is reported once for all item
+   * types.
+   *
+   * @param routingContext The server request
+   */
+  private void timeRequest(RoutingContext routingContext) {
+    long start = System.nanoTime();
+    routingContext.addBodyEndHandler(
+        v -> {
+          Route route = routingContext.currentRoute();
+          String path = (route == null || route.getPath() == null) ? "other" : route.getPath();
+          metrics
+              .timer(
+                  "iudx_http_request_duration_seconds",
+                  "Duration of HTTP requests",
+                  "route",
+                  path,
+                  "method",
+                  routingContext.request().method().name())
+              .record(System.nanoTime() - start);
+        });
+    routingContext.next();
+  }
+
+  private void metrics(RoutingContext routingContext) {
+    routingContext
+        .response()
+        .setStatusCode(HTTP_STATUS_OK)
+        .putHeader("content-type", "text/plain; version=0.0.4; charset=utf-8")
+        .end(metrics.render());
+  }
+
+  private String getStatusInJson(RoutingContext routingContext, String status) {
+    return encode(routingContext, new JsonObject().put("Status", status));
+  }
+
+  /**
+   * Ends the response with the given body. Bodies smaller than compression_min_size are sent
+   * without compression, since compressing them costs more CPU than it saves on the wire.
+   *
+   * @param response The response
+   * @param body The encoded body
+   */
+  private void end(HttpServerResponse response, String body) {
+    if (body.length() < compressionMinSize) {
+      response.putHeader(HttpHeaders.CONTENT_ENCODING, HttpHeaders.IDENTITY);
+    }
+    response.end(body);
   }
 
   private void handle400(RoutingContext routingContext, String status) {
     HttpServerResponse response = routingContext.response();
-    String jsonStatus = getStatusInJson(status);
+    String jsonStatus = getStatusInJson(routingContext, status);
     response
         .setStatusCode(HTTP_STATUS_BAD_REQUEST)
-        .putHeader("content-type", "application/json; charset=utf-8")
-        .end(jsonStatus);
+        .putHeader("content-type", "application/json; charset=utf-8");
+    end(response, jsonStatus);
   }
 
   private void handle401(RoutingContext routingContext, String status) {
     HttpServerResponse response = routingContext.response();
-    String jsonStatus = getStatusInJson(status);
+    String jsonStatus = getStatusInJson(routingContext, status);
     response
         .setStatusCode(HTTP_STATUS_UNAUTHORIZED)
-        .putHeader("content-type", "application/json; charset=utf-8")
-        .end(jsonStatus);
+        .putHeader("content-type", "application/json; charset=utf-8");
+    end(response, jsonStatus);
   }
 
   private void handle500(RoutingContext routingContext) {
@@ -644,16 +1229,25 @@ public class APIServerVerticle extends AbstractVerticle {
     response.setStatusCode(HTTP_STATUS_INTERNAL_SERVER_ERROR).end();
   }
 
+  private void putETag(RoutingContext routingContext) {
+    String etag = routingContext.get("etag");
+    if (etag != null) {
+      routingContext.response().putHeader("ETag", etag);
+    }
+  }
+
   private void handle200(RoutingContext routingContext, JsonArray reply) {
     HttpServerResponse response = routingContext.response();
+    putETag(routingContext);
 
-    response.setStatusCode(HTTP_STATUS_OK).end(reply.encodePrettily());
+    end(response.setStatusCode(HTTP_STATUS_OK), encode(routingContext, reply));
   }
 
   private void handle200(RoutingContext routingContext, JsonObject reply) {
     HttpServerResponse response = routingContext.response();
+    putETag(routingContext);
 
-    response.setStatusCode(HTTP_STATUS_OK).end(reply.encodePrettily());
+    end(response.setStatusCode(HTTP_STATUS_OK), encode(routingContext, reply));
   }
 
   private void handle204(RoutingContext routingContext) {
@@ -665,8 +1259,8 @@ public class APIServerVerticle extends AbstractVerticle {
   private void handle201(RoutingContext routingContext, String id) {
     HttpServerResponse response = routingContext.response();
 
-    String JsonId = (new JsonObject().put("id", id)).encodePrettily();
+    String JsonId = encode(routingContext, new JsonObject().put("id", id));
 
-    response.setStatusCode(HTTP_STATUS_CREATED).end(JsonId);
+    end(response.setStatusCode(HTTP_STATUS_CREATED), JsonId);
   }
 }
@@ -0,0 +1,216 @@
+package iudx.catalogue.apiserver;
+
+import java.util.function.BiConsumer;
+import java.util.logging.Logger;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.parsetools.RecordParser;
+
+/**
+ * Streams a bulk upload into the database. The body, newline-delimited JSON objects, is split into
+ * lines as it arrives and the items are written in batches of a fixed size. Blank lines are
+ * skipped. The request is paused while a batch is being written, so at most two batches are held
+ * in memory whatever the size of the upload.
+ *
+ * <p>The response is a chunked stream of NDJSON lines: one per batch once it has been written, with
+ * the validation report of the batch when the items are validated, and a last one with the total.
+ * A failure after the first line ends the stream with a line whose status is failure, since the
+ * status code has already been sent.
+ */
+class BulkIngest {
+
+  private static final Logger logger = Logger.getLogger(BulkIngest.class.getName());
+
+  private final HttpServerRequest request;
+  private final HttpServerResponse response;
+  private final String bulkId;
+  private final int batchSize;
+  private final BiConsumer<JsonObject, Handler<AsyncResult<Object>>> writer;
+
+  private JsonArray pending = new JsonArray();
+  private long lines;
+  private int batches;
+  private long processed;
+  private long invalid;
+  private boolean writing;
+  private boolean ended;
+  private boolean failed;
+  private int failureCode;
+  private String failure;
+
+  /**
+   * @param request The upload, which must not have been read yet
+   * @param bulkId The bulk-id of the items
+   * @param batchSize The number of items written at once
+   * @param writer Writes a bulk create request, with the bulk-id and a batch of items, and calls
+   *     the handler with the reply of the database
+   */
+  BulkIngest(
+      HttpServerRequest request,
+      String bulkId,
+      int batchSize,
+      BiConsumer<JsonObject, Handler<AsyncResult<Object>>> writer) {
+    this.request = request;
+    this.response = request.response();
+    this.bulkId = bulkId;
+    this.batchSize = batchSize;
+    this.writer = writer;
+  }
+
+  void start() {
+    RecordParser parser = RecordParser.newDelimited("\n", this::onLine);
+    request.handler(parser);
+    request.exceptionHandler(err -> fail(400, "Invalid upload: " + err.getMessage()));
+    request.endHandler(
+        v -> {
+          // The last line does not have to end with a newline
+          parser.handle(Buffer.buffer("\n"));
+          ended = true;
+          if (!writing) {
+            next();
+          }
+        });
+  }
+
+  private void onLine(Buffer line) {
+    lines++;
+    if (failed) {
+      return;
+    }
+    String json = line.toString("UTF-8").trim();
+    if (json.isEmpty()) {
+      return;
+    }
+    JsonObject item;
+    try {
+      item = new JsonObject(json);
+    } catch (DecodeException | ClassCastException e) {
+      fail(400, "Invalid item on line " + lines + ": Not a Json Object");
+      return;
+    }
+
+    pending.add(item);
+    if (pending.size() >= batchSize) {
+      // Lines of buffers that have already arrived are still parsed, they go into the next batch
+      request.pause();
+      if (!writing) {
+        write();
+      }
+    }
+  }
+
+  private void next() {
+    if (failed) {
+      return;
+    }
+    if (pending.size() >= batchSize || (ended && !pending.isEmpty())) {
+      write();
+    } else if (ended) {
+      JsonObject summary =
+          new JsonObject()
+              .put("bulk-id", bulkId)
+              .put("batches", batches)
+              .put("written", processed - invalid)
+              .put("invalid", invalid)
+              .put("status", "success");
+      if (!response.headWritten()) {
+        head();
+      }
+      response.end(summary.encode() + "\n");
+    } else {
+      request.resume();
+    }
+  }
+
+  private void write() {
+    JsonArray items = pending;
+    pending = new JsonArray();
+    writing = true;
+
+    JsonObject request_body = new JsonObject().put("bulk-id", bulkId).put("items", items);
+    writer.accept(
+        request_body,
+        reply -> {
+          writing = false;
+          JsonObject result = reply.succeeded() ? (JsonObject) reply.result() : null;
+          if (result != null) {
+            batches++;
+            processed += items.size();
+            invalid += result.getInteger("invalid", 0);
+          }
+          if (failed) {
+            // The upload failed while the batch was written, the failure waited for its count
+            endFailure();
+            return;
+          }
+          if (result == null) {
+            fail(500, reply.cause().getMessage());
+            return;
+          }
+
+          JsonObject progress =
+              new JsonObject()
+                  .put("batch", batches)
+                  .put("items", result.getJsonArray("items"))
+                  .put("written", processed - invalid);
+          if (result.containsKey("results")) {
+            // Indexes in the validation report are relative to the batch
+            progress.put("first-index", processed - items.size());
+            progress.put("invalid", result.getInteger("invalid"));
+            progress.put("results", result.getJsonArray("results"));
+          }
+          if (!response.headWritten()) {
+            head();
+          }
+          response.write(progress.encode() + "\n");
+          if (response.writeQueueFull()) {
+            response.drainHandler(v -> next());
+          } else {
+            next();
+          }
+        });
+  }
+
+  private void head() {
+    response
+        .setChunked(true)
+        .setStatusCode(APIServerVerticle.HTTP_STATUS_OK)
+        .putHeader("content-type", "application/x-ndjson");
+  }
+
+  private void fail(int statusCode, String status) {
+    if (failed) {
+      return;
+    }
+    failed = true;
+    failureCode = statusCode;
+    failure = status;
+    // The rest of the upload is read and discarded, which keeps the connection usable
+    request.resume();
+    // A batch being written is still inserted, so the response waits for it to be counted
+    if (!writing) {
+      endFailure();
+    }
+  }
+
+  private void endFailure() {
+    logger.info("Bulk upload " + bulkId + " failed after " + processed + " items: " + failure);
+
+    JsonObject error = new JsonObject().put("status", failure).put("written", processed - invalid);
+    if (!response.headWritten()) {
+      response
+          .setStatusCode(failureCode)
+          .putHeader("content-type", "application/json; charset=utf-8")
+          .end(error.encode());
+    } else {
+      response.end(error.put("status", "failure").put("error", failure).encode() + "\n");
+    }
+  }
+}
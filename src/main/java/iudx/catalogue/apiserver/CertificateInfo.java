@@ -0,0 +1,102 @@
+package iudx.catalogue.apiserver;
+
+import static org.apache.commons.codec.digest.MessageDigestAlgorithms.SHA_1;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSession;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+/**
+ * The result of classifying a client certificate. It is computed once per TLS session and kept as
+ * a value of the SSLSession, so it is dropped together with the session and requests on a
+ * keep-alive connection do not parse and hash the certificate again.
+ */
+public final class CertificateInfo {
+
+  private static final Logger logger = Logger.getLogger(CertificateInfo.class.getName());
+  private static final String SESSION_KEY = "iudx.catalogue.certificate";
+
+  private static final CertificateInfo UNVERIFIED = new CertificateInfo(0, null);
+
+  private final int certificateClass;
+  private final String hashedEmail;
+
+  private CertificateInfo(int certificateClass, String hashedEmail) {
+    this.certificateClass = certificateClass;
+    this.hashedEmail = hashedEmail;
+  }
+
+  /** @return The class (3, 4 or 5 for valid certificates) or 0 when it could not be determined */
+  public int getCertificateClass() {
+    return certificateClass;
+  }
+
+  /** @return The email id of the peer with the user name hashed using SHA-1 */
+  public String getHashedEmail() {
+    return hashedEmail;
+  }
+
+  /** @return true if the certificate is of class 3, 4 or 5 */
+  public boolean isValid() {
+    return certificateClass >= 3 && certificateClass <= 5;
+  }
+
+  /**
+   * Returns the classification of the peer certificate of the session, computing and caching it
+   * in the session on first use.
+   *
+   * @param session The TLS session of the connection, may be null for plain connections
+   * @return The certificate classification
+   */
+  public static CertificateInfo of(SSLSession session) {
+    if (session == null) {
+      return UNVERIFIED;
+    }
+
+    Object cached = session.getValue(SESSION_KEY);
+    if (cached instanceof CertificateInfo) {
+      return (CertificateInfo) cached;
+    }
+
+    CertificateInfo info;
+    try {
+      info = parse(session.getPeerPrincipal().toString());
+    } catch (SSLPeerUnverifiedException e) {
+      // The client may still present a certificate on a renegotiated session
+      return UNVERIFIED;
+    } catch (RuntimeException e) {
+      logger.info("Unable to parse peer certificate : " + e);
+      info = UNVERIFIED;
+    }
+    session.putValue(SESSION_KEY, info);
+    return info;
+  }
+
+  private static CertificateInfo parse(String peerPrincipal) {
+    String[] peerPrincipalArray = peerPrincipal.split(",");
+    String peerPrincipal_OID = peerPrincipalArray[0];
+    String peerPrincipal_EMAILADDRESS = peerPrincipalArray[8];
+
+    String[] emailID = peerPrincipal_EMAILADDRESS.split("=")[1].split("@");
+    String userName = emailID[0];
+    String domain = emailID[1];
+    String emailID_SHA_1 = new DigestUtils(SHA_1).digestAsHex(userName) + "@" + domain;
+
+    int certificateClass = 0;
+    int index = peerPrincipal_OID.indexOf("class:");
+    if (index >= 0 && index + 6 < peerPrincipal_OID.length()) {
+      certificateClass = Character.digit(peerPrincipal_OID.charAt(index + 6), 10);
+    }
+
+    if (logger.isLoggable(Level.FINE)) {
+      logger.fine("getPeerPrincipal is " + peerPrincipal);
+      logger.fine("emailID in SHA-1 is " + emailID_SHA_1);
+      logger.fine("Certificate class is " + certificateClass);
+    }
+    return new CertificateInfo(Math.max(certificateClass, 0), emailID_SHA_1);
+  }
+}
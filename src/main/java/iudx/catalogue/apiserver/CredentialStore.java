@@ -0,0 +1,143 @@
+package iudx.catalogue.apiserver;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.json.JSONObject;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+
+/**
+ * In-memory copy of the credential file (user.list). The file is parsed once when the store is
+ * created and is re-read only when its last modified time changes, so authenticating a request is
+ * a single map lookup. One store is shared by all the APIServerVerticle instances of a Vert.x
+ * instance.
+ */
+public class CredentialStore implements Shareable {
+
+  private static final Logger logger = Logger.getLogger(CredentialStore.class.getName());
+  private static final String SHARED_MAP = "iudx.catalogue.apiserver";
+
+  private final Vertx vertx;
+  private final String file_path;
+  private volatile Map<String, User> users = Collections.emptyMap();
+  private volatile boolean loaded = false;
+  private volatile long lastModified = -1;
+
+  /** A user registered in the credential file */
+  public static final class User {
+    private final String password;
+    private final boolean writePermission;
+
+    User(String password, boolean writePermission) {
+      this.password = password;
+      this.writePermission = writePermission;
+    }
+
+    public boolean hasPassword(String password) {
+      return this.password != null && this.password.equals(password);
+    }
+
+    public boolean hasWritePermission() {
+      return writePermission;
+    }
+  }
+
+  private CredentialStore(Vertx vertx, String file_path) {
+    this.vertx = vertx;
+    this.file_path = file_path;
+  }
+
+  /**
+   * Returns the store for the given credential file, creating and loading it on first use.
+   *
+   * @param vertx Reference to the Vert.x instance
+   * @param file_path The path of the file which contains the list of users and their permissions
+   * @param reloadInterval How often (in ms) the file is checked for changes
+   * @return The shared credential store
+   */
+  public static CredentialStore getInstance(Vertx vertx, String file_path, long reloadInterval) {
+    synchronized (CredentialStore.class) {
+      LocalMap<String, CredentialStore> stores = vertx.sharedData().getLocalMap(SHARED_MAP);
+      CredentialStore store = stores.get("credentials:" + file_path);
+      if (store == null) {
+        store = new CredentialStore(vertx, file_path);
+        store.loadBlocking();
+        store.watch(reloadInterval);
+        stores.put("credentials:" + file_path, store);
+      }
+      return store;
+    }
+  }
+
+  /**
+   * @param userId The id of the user
+   * @return The user or null if the user is not registered
+   */
+  public User getUser(String userId) {
+    return users.get(userId);
+  }
+
+  /** @return true if the credential file has been read successfully at least once */
+  public boolean isLoaded() {
+    return loaded;
+  }
+
+  private void loadBlocking() {
+    try {
+      lastModified = vertx.fileSystem().propsBlocking(file_path).lastModifiedTime();
+      swap(vertx.fileSystem().readFileBlocking(file_path).toString("UTF-8"));
+    } catch (Exception e) {
+      logger.severe("Unable to read credential file " + file_path + " : " + e);
+    }
+  }
+
+  private void watch(long reloadInterval) {
+    vertx.setPeriodic(
+        reloadInterval,
+        timer ->
+            vertx
+                .fileSystem()
+                .props(
+                    file_path,
+                    props -> {
+                      if (props.failed() || props.result().lastModifiedTime() == lastModified) {
+                        return;
+                      }
+                      long modified = props.result().lastModifiedTime();
+                      vertx
+                          .fileSystem()
+                          .readFile(
+                              file_path,
+                              file -> {
+                                if (file.succeeded()) {
+                                  try {
+                                    swap(file.result().toString("UTF-8"));
+                                    lastModified = modified;
+                                    logger.info("Reloaded credential file " + file_path);
+                                  } catch (Exception e) {
+                                    logger.severe(
+                                        "Ignoring invalid credential file " + file_path + " : " + e);
+                                  }
+                                }
+                              });
+                    }));
+  }
+
+  private void swap(String content) {
+    JSONObject list = new JSONObject(content);
+    Map<String, User> parsed = new HashMap<String, User>();
+    for (String userId : list.keySet()) {
+      JSONObject user = list.getJSONObject(userId);
+      parsed.put(
+          userId,
+          new User(user.optString("password", null), user.optBoolean("write_permission", false)));
+    }
+    users = parsed;
+    loaded = true;
+  }
+}
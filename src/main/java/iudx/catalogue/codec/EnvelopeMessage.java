@@ -0,0 +1,68 @@
+package iudx.catalogue.codec;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.MultiMap;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.Message;
+
+/** A message whose body is unwrapped from its JsonEnvelope and whose replies are wrapped in one */
+class EnvelopeMessage<T> implements Message<T> {
+
+  private final Message<T> message;
+
+  EnvelopeMessage(Message<T> message) {
+    this.message = message;
+  }
+
+  @Override
+  public String address() {
+    return message.address();
+  }
+
+  @Override
+  public MultiMap headers() {
+    return message.headers();
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public T body() {
+    return (T) JsonEnvelope.unwrap(message.body());
+  }
+
+  @Override
+  public String replyAddress() {
+    return message.replyAddress();
+  }
+
+  public boolean isSend() {
+    return message.isSend();
+  }
+
+  @Override
+  public void reply(Object reply) {
+    message.reply(JsonEnvelope.wrap(reply));
+  }
+
+  @Override
+  public <R> void reply(Object reply, Handler<AsyncResult<Message<R>>> replyHandler) {
+    message.reply(JsonEnvelope.wrap(reply), replyHandler);
+  }
+
+  @Override
+  public void reply(Object reply, DeliveryOptions options) {
+    message.reply(JsonEnvelope.wrap(reply), options);
+  }
+
+  @Override
+  public <R> void reply(
+      Object reply, DeliveryOptions options, Handler<AsyncResult<Message<R>>> replyHandler) {
+    message.reply(JsonEnvelope.wrap(reply), options, replyHandler);
+  }
+
+  @Override
+  public void fail(int failureCode, String failure) {
+    message.fail(failureCode, failure);
+  }
+}
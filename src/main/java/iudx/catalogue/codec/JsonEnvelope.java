@@ -0,0 +1,79 @@
+package iudx.catalogue.codec;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Carries a JsonObject or JsonArray over the event bus without copying it. Vert.x copies JSON
+ * bodies on every local send so that the sender and the receiver never share mutable state. The
+ * catalogue verticles hand over ownership instead: once a body is sent, the sender does not touch
+ * it again, so the copy can be skipped. JsonEnvelopeCodec still serializes the body when the
+ * message leaves the JVM.
+ */
+public final class JsonEnvelope {
+
+  private final Object body;
+
+  private JsonEnvelope(Object body) {
+    this.body = body;
+  }
+
+  /** @return The JsonObject or JsonArray carried by the envelope */
+  public Object getBody() {
+    return body;
+  }
+
+  /**
+   * Wraps a JSON body in an envelope. Other bodies are returned as they are.
+   *
+   * @param body The body of a message
+   * @return The envelope or the body itself
+   */
+  public static Object wrap(Object body) {
+    if (body instanceof JsonObject || body instanceof JsonArray) {
+      return new JsonEnvelope(body);
+    }
+    return body;
+  }
+
+  /**
+   * Returns the body carried by an envelope. Other bodies are returned as they are.
+   *
+   * @param body The body of a message
+   * @return The unwrapped body
+   */
+  public static Object unwrap(Object body) {
+    if (body instanceof JsonEnvelope) {
+      return ((JsonEnvelope) body).body;
+    }
+    return body;
+  }
+
+  /**
+   * Wraps a received message so that its body is unwrapped and JSON replies are sent in envelopes
+   *
+   * @param message The received message
+   * @return The wrapped message
+   */
+  public static <T> Message<T> receive(Message<T> message) {
+    return new EnvelopeMessage<T>(message);
+  }
+
+  /**
+   * Registers JsonEnvelopeCodec as the default codec of JsonEnvelope. Every verticle that sends
+   * envelopes calls this on start, the codec is registered only once per Vert.x instance.
+   *
+   * @param vertx Reference to the Vert.x instance
+   */
+  public static void registerCodec(Vertx vertx) {
+    synchronized (JsonEnvelope.class) {
+      try {
+        vertx.eventBus().registerDefaultCodec(JsonEnvelope.class, new JsonEnvelopeCodec());
+      } catch (IllegalStateException e) {
+        // Already registered by another verticle
+      }
+    }
+  }
+}
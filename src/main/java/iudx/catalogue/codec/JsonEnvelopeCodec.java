@@ -0,0 +1,56 @@
+package iudx.catalogue.codec;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.MessageCodec;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Codec of JsonEnvelope. A local delivery passes the envelope as it is, a remote delivery writes
+ * the body as a type byte followed by the length and the bytes of the encoded JSON.
+ */
+public class JsonEnvelopeCodec implements MessageCodec<JsonEnvelope, JsonEnvelope> {
+
+  private static final byte OBJECT = 0;
+  private static final byte ARRAY = 1;
+
+  @Override
+  public void encodeToWire(Buffer buffer, JsonEnvelope envelope) {
+    Object body = envelope.getBody();
+    Buffer encoded;
+    if (body instanceof JsonObject) {
+      buffer.appendByte(OBJECT);
+      encoded = ((JsonObject) body).toBuffer();
+    } else {
+      buffer.appendByte(ARRAY);
+      encoded = ((JsonArray) body).toBuffer();
+    }
+    buffer.appendInt(encoded.length());
+    buffer.appendBuffer(encoded);
+  }
+
+  @Override
+  public JsonEnvelope decodeFromWire(int pos, Buffer buffer) {
+    byte type = buffer.getByte(pos);
+    int length = buffer.getInt(pos + 1);
+    Buffer encoded = buffer.getBuffer(pos + 5, pos + 5 + length);
+    Object body = (type == OBJECT) ? new JsonObject(encoded) : new JsonArray(encoded);
+    return (JsonEnvelope) JsonEnvelope.wrap(body);
+  }
+
+  @Override
+  public JsonEnvelope transform(JsonEnvelope envelope) {
+    // Ownership of the body passes to the receiver, no copy is made
+    return envelope;
+  }
+
+  @Override
+  public String name() {
+    return "iudx-json-envelope";
+  }
+
+  @Override
+  public byte systemCodecID() {
+    return -1;
+  }
+}
@@ -0,0 +1,263 @@
+package iudx.catalogue.database;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * A parsed attribute query of the form
+ *
+ * <pre>
+ * attribute-name=(a,b)&amp;attribute-value=((x,y),(z))
+ * </pre>
+ *
+ * The names and values are parsed in a single pass into a list of clauses, which is compiled once
+ * into a Mongo filter. Compiled queries and attribute filters are kept in an LRU keyed by the raw
+ * strings, so repeated queries skip parsing altogether.
+ */
+public final class AttributeQuery {
+
+  private static final int CACHE_SIZE = 1024;
+
+  private static final Map<String, Object> compiled =
+      new LinkedHashMap<String, Object>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+          return size() > CACHE_SIZE;
+        }
+      };
+
+  /** A clause of the query: the attribute and the values it may take */
+  public static final class Clause {
+    private final String name;
+    private final List<String> values;
+
+    Clause(String name, List<String> values) {
+      this.name = name;
+      this.values = values;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public List<String> getValues() {
+      return values;
+    }
+  }
+
+  private final List<Clause> clauses;
+  private final JsonObject filter;
+  private final JsonArray tags;
+
+  private AttributeQuery(List<Clause> clauses) {
+    this.clauses = Collections.unmodifiableList(clauses);
+
+    JsonArray expressions = new JsonArray();
+    JsonArray searchedTags = null;
+    for (Clause clause : clauses) {
+      String key = clause.name;
+      JsonArray value = new JsonArray();
+
+      if (key.equalsIgnoreCase("tags")) {
+        key = "_tags";
+        for (String tag : clause.values) {
+          value.add(tag.toLowerCase());
+        }
+        searchedTags = value;
+      } else if (key.equalsIgnoreCase("location")) {
+        expressions.add(new JsonObject().put("geoJsonLocation", geoQuery(clause.values)));
+        continue;
+      } else {
+        if (key.charAt(0) == '$') {
+          key = "_$_" + key.substring(1);
+        }
+        for (String v : clause.values) {
+          value.add(v);
+        }
+      }
+      expressions.add(new JsonObject().put(key, new JsonObject().put("$in", value)));
+    }
+    this.filter = new JsonObject().put("$and", expressions);
+    this.tags = searchedTags;
+  }
+
+  /**
+   * Returns the compiled query for the given attribute names and values
+   *
+   * @param names The value of the attribute-name parameter
+   * @param values The value of the attribute-value parameter
+   * @return The query or null if the query is invalid
+   */
+  public static AttributeQuery compile(String names, String values) {
+    String key = "query:" + names + "&" + values;
+    synchronized (compiled) {
+      Object query = compiled.get(key);
+      if (query != null) {
+        return (AttributeQuery) query;
+      }
+    }
+
+    AttributeQuery query;
+    try {
+      List<List<String>> attributeNames = parseList(names);
+      List<List<String>> attributeValues = parseList(values);
+      if (attributeNames.size() != attributeValues.size()) {
+        return null;
+      }
+      List<Clause> clauses = new ArrayList<Clause>(attributeNames.size());
+      for (int i = 0; i < attributeNames.size(); i++) {
+        clauses.add(new Clause(attributeNames.get(i).get(0), attributeValues.get(i)));
+      }
+      query = new AttributeQuery(clauses);
+    } catch (RuntimeException e) {
+      return null;
+    }
+
+    synchronized (compiled) {
+      compiled.put(key, query);
+    }
+    return query;
+  }
+
+  /**
+   * Returns the projection for the given attribute filter
+   *
+   * @param attributeFilter The value of the attribute-filter parameter
+   * @return The fields to be returned or null if the filter is invalid. The caller may add fields.
+   */
+  public static JsonObject fields(String attributeFilter) {
+    String key = "fields:" + attributeFilter;
+    JsonObject fields;
+    synchronized (compiled) {
+      fields = (JsonObject) compiled.get(key);
+    }
+
+    if (fields == null) {
+      fields = new JsonObject();
+      try {
+        for (List<String> element : parseList(attributeFilter)) {
+          String field = element.get(0);
+          if (field.charAt(0) == '$') {
+            field = "_$_" + field.substring(1);
+          }
+          fields.put(field, 1);
+        }
+      } catch (RuntimeException e) {
+        return null;
+      }
+      synchronized (compiled) {
+        compiled.put(key, fields);
+      }
+    }
+    return fields.copy();
+  }
+
+  public List<Clause> getClauses() {
+    return clauses;
+  }
+
+  /**
+   * Returns the Mongo filter of the query. Only the top level is copied, so fields may be added to
+   * it but the nested expressions must not be modified.
+   *
+   * @return The filter
+   */
+  public JsonObject filter() {
+    return new JsonObject(new LinkedHashMap<String, Object>(filter.getMap()));
+  }
+
+  /** @return The lower-cased tags searched for or null if the query does not filter on tags */
+  public JsonArray getTags() {
+    return tags;
+  }
+
+  /**
+   * Parses a list such as (a,b) or ((x,y),(z)) in a single pass. Every element is returned as a
+   * list of strings, a bare element being a list of one.
+   *
+   * @param s The list
+   * @return The elements
+   * @throws IllegalArgumentException if s is not enclosed in parentheses
+   */
+  static List<List<String>> parseList(String s) {
+    int end = s.length() - 1;
+    if (end < 1 || s.charAt(0) != '(' || s.charAt(end) != ')') {
+      throw new IllegalArgumentException("Not a list: " + s);
+    }
+
+    List<List<String>> elements = new ArrayList<List<String>>();
+    int i = 1;
+    while (i < end) {
+      char c = s.charAt(i);
+      if (c == ',') {
+        i++;
+      } else if (c == '(') {
+        List<String> group = new ArrayList<String>(2);
+        int j = i + 1;
+        while (j < end) {
+          int k = endOfToken(s, j, end);
+          group.add(s.substring(j, k));
+          j = k + 1;
+          if (k >= end || s.charAt(k) == ')') {
+            break;
+          }
+        }
+        elements.add(group);
+        i = j;
+      } else {
+        int k = endOfToken(s, i, end);
+        elements.add(Collections.singletonList(s.substring(i, k)));
+        i = k + 1;
+      }
+    }
+    return elements;
+  }
+
+  private static int endOfToken(String s, int from, int end) {
+    int k = from;
+    while (k < end && s.charAt(k) != ',' && s.charAt(k) != ')') {
+      k++;
+    }
+    return k;
+  }
+
+  private static JsonObject geoQuery(List<String> params) {
+    JsonObject location = new JsonObject();
+    for (String param : params) {
+      int colon = param.indexOf(':');
+      String k = param.substring(0, colon);
+      String v = param.substring(colon + 1);
+      if (k.equalsIgnoreCase("bounding-type")) {
+        location.put(k, v);
+      } else {
+        location.put(k, Double.parseDouble(v));
+      }
+    }
+
+    JsonObject query = new JsonObject();
+    if (location.getString("bounding-type").equals("circle")) {
+      double latitude = location.getDouble("lat");
+      double longitude = location.getDouble("long");
+      double rad = location.getDouble("radius", 1.0) * 1000.0;
+
+      query.put(
+          "$nearSphere",
+          new JsonObject()
+              .put(
+                  "$geometry",
+                  new JsonObject()
+                      .put("type", "Point")
+                      .put("coordinates", new JsonArray().add(longitude).add(latitude)))
+              .put("$maxDistance", rad));
+    }
+    return query;
+  }
+}
@@ -0,0 +1,67 @@
+package iudx.catalogue.database;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+
+/**
+ * A counter of the writes to the catalogue, bumped by the write paths of the database once a write
+ * has completed. Any read that starts after a write sees a higher version, so the version and the
+ * request URI identify a response and can be used as its ETag without querying the database.
+ *
+ * <p>The counter lives in memory, so the ETag also carries an epoch chosen at startup. ETags issued
+ * before a restart never match after it. Only the writes of the databases of this Vert.x instance
+ * are counted, and the tag collection, which is written after the items, is not covered.
+ */
+public class CollectionVersion implements Shareable {
+
+  private static final String SHARED_MAP = "iudx.catalogue.database";
+
+  private final String epoch;
+  private final AtomicLong version = new AtomicLong();
+
+  private CollectionVersion() {
+    epoch = Long.toString(System.currentTimeMillis(), 36);
+  }
+
+  /**
+   * Returns the version shared by the verticles of a Vert.x instance
+   *
+   * @param vertx Reference to the Vert.x instance
+   * @return The shared version
+   */
+  public static CollectionVersion getInstance(Vertx vertx) {
+    synchronized (CollectionVersion.class) {
+      LocalMap<String, CollectionVersion> versions = vertx.sharedData().getLocalMap(SHARED_MAP);
+      CollectionVersion version = versions.get("collection-version");
+      if (version == null) {
+        version = new CollectionVersion();
+        versions.put("collection-version", version);
+      }
+      return version;
+    }
+  }
+
+  /** Records that a write to the catalogue has completed */
+  public void increment() {
+    version.incrementAndGet();
+  }
+
+  /**
+   * Returns a strong ETag for a response built from the catalogue in its current version
+   *
+   * @param resource The request URI, including the query
+   * @return The quoted ETag
+   */
+  public String etag(String resource) {
+    return "\""
+        + epoch
+        + "-"
+        + Long.toString(version.get(), 36)
+        + "-"
+        + Integer.toHexString(resource.hashCode())
+        + "\"";
+  }
+}
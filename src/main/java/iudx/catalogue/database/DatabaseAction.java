@@ -0,0 +1,51 @@
+package iudx.catalogue.database;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/** The actions of the database, named as in the action header of event bus requests */
+public enum DatabaseAction {
+  LIST("list"),
+  GET_TAGS("get-tags"),
+  CREATE("create"),
+  UPDATE("update"),
+  DELETE("delete"),
+  SEARCH_ATTRIBUTE("search-attribute"),
+  COUNT("count"),
+  BATCH_GET("batch-get"),
+  READ_SCHEMA("read-schema"),
+  BULK_CREATE("bulkcreate"),
+  BULK_UPDATE("bulkupdate"),
+  BULK_DELETE("bulkdelete"),
+  CACHE_STATS("cache-stats"),
+  INDEX_STATS("index-stats");
+
+  private static final Map<String, DatabaseAction> byName = new HashMap<String, DatabaseAction>();
+
+  static {
+    for (DatabaseAction action : values()) {
+      byName.put(action.name, action);
+    }
+  }
+
+  private final String name;
+
+  DatabaseAction(String name) {
+    this.name = name;
+  }
+
+  /** @return The value of the action header */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Returns the action with the given header value
+   *
+   * @param name The value of the action header
+   * @return The action or null if there is no such action
+   */
+  public static DatabaseAction fromName(String name) {
+    return byName.get(name);
+  }
+}
@@ -15,6 +15,15 @@ public interface DatabaseInterface {
    */
   public Future<Void> initDB(Vertx vertx, JsonObject mongoconfig);
 
+  /**
+   * Writes any state the database keeps in memory, before the database instance is stopped
+   *
+   * @return Completed once the state is written
+   */
+  public default Future<Void> close() {
+    return Future.succeededFuture();
+  }
+
   /**
    * Searches the database based on the query and returns only those attributes of the documents
    * that are mentioned in the attribute filter.
@@ -53,9 +62,108 @@ public interface DatabaseInterface {
 
   public void count(Message<Object> message);
 
+  /**
+   * Returns the items with the given ids, in the order of the ids. An id without a live item is
+   * replied as an object with the id and a not-found status. Found items always carry their id,
+   * even when the attribute filter leaves it out.
+   *
+   * @param message The message from APIServerVerticle which contains the ids and optionally the
+   *     attribute filter
+   */
+  public void batchGet(Message<Object> message);
+
+  /**
+   * Replies with a live base-schema or data-model item, without a database query when the schema
+   * registry holds it
+   *
+   * @param message The message from ValidatorVerticle which contains the id of the schema
+   */
+  public void readSchema(Message<Object> message);
+
   public void bulkUpdate(Message<Object> message);
 
   public void bulkDelete(Message<Object> message);
 
   public void bulkCreate(Message<Object> message);
+
+  /**
+   * Replies with the hit, miss, eviction and invalidation counters of the search cache
+   *
+   * @param message The message from APIServerVerticle
+   */
+  public void cacheStats(Message<Object> message);
+
+  /**
+   * Replies with the missing, undeclared and unused indexes of the item collection
+   *
+   * @param message The message from APIServerVerticle
+   */
+  public void indexStats(Message<Object> message);
+
+  /**
+   * Performs an action of the database
+   *
+   * @param action The action
+   * @param message The message which contains the parameters of the action. The result is replied
+   *     to this message.
+   */
+  public default void handle(DatabaseAction action, Message<Object> message) {
+    switch (action) {
+      case LIST:
+        list(message);
+        break;
+      case GET_TAGS:
+        listTags(message);
+        break;
+      case CREATE:
+        create(message);
+        break;
+      case UPDATE:
+        update(message);
+        break;
+      case DELETE:
+        delete(message);
+        break;
+      case SEARCH_ATTRIBUTE:
+        searchAttribute(message);
+        break;
+      case COUNT:
+        count(message);
+        break;
+      case BATCH_GET:
+        batchGet(message);
+        break;
+      case READ_SCHEMA:
+        readSchema(message);
+        break;
+      case BULK_CREATE:
+        bulkCreate(message);
+        break;
+      case BULK_UPDATE:
+        bulkUpdate(message);
+        break;
+      case BULK_DELETE:
+        bulkDelete(message);
+        break;
+      case CACHE_STATS:
+        cacheStats(message);
+        break;
+      case INDEX_STATS:
+        indexStats(message);
+        break;
+    }
+  }
+
+  /**
+   * Executes a request in the calling thread, without going through the event bus
+   *
+   * @param request The request
+   * @return The reply of the database. A failed request fails with a ReplyException carrying the
+   *     same message as an event bus failure.
+   */
+  public default Future<DatabaseReply> execute(DatabaseRequest request) {
+    Future<DatabaseReply> reply = Future.future();
+    handle(request.getAction(), new LocalMessage(request, reply));
+    return reply;
+  }
 }
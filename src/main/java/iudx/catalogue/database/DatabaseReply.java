@@ -0,0 +1,41 @@
+package iudx.catalogue.database;
+
+import io.vertx.core.MultiMap;
+import io.vertx.core.eventbus.Message;
+
+/** The reply of the database to a request: the result and the headers, such as next-cursor */
+public final class DatabaseReply {
+
+  private final Object body;
+  private final MultiMap headers;
+
+  DatabaseReply(Object body, MultiMap headers) {
+    this.body = body;
+    this.headers = headers;
+  }
+
+  /**
+   * Returns the reply carried by an event bus message
+   *
+   * @param message The reply message
+   * @return The reply
+   */
+  public static DatabaseReply of(Message<Object> message) {
+    return new DatabaseReply(message.body(), message.headers());
+  }
+
+  /** @return The result, a JsonObject, a JsonArray or a String depending on the action */
+  public Object getBody() {
+    return body;
+  }
+
+  /**
+   * Returns a header of the reply
+   *
+   * @param name The name of the header
+   * @return The value or null if the header is absent
+   */
+  public String getHeader(String name) {
+    return headers == null ? null : headers.get(name);
+  }
+}
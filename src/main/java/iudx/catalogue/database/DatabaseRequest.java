@@ -0,0 +1,55 @@
+package iudx.catalogue.database;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * A request to the database: the action, its parameters and the optional headers, such as the
+ * stream address of a streamed search. The body is handed over to the database, the caller must
+ * not modify it once the request has been executed.
+ */
+public final class DatabaseRequest {
+
+  private final DatabaseAction action;
+  private final JsonObject body;
+  private Map<String, String> headers;
+
+  public DatabaseRequest(DatabaseAction action, JsonObject body) {
+    this.action = action;
+    this.body = body;
+  }
+
+  public DatabaseAction getAction() {
+    return action;
+  }
+
+  public JsonObject getBody() {
+    return body;
+  }
+
+  public DatabaseRequest putHeader(String name, String value) {
+    if (headers == null) {
+      headers = new LinkedHashMap<String, String>();
+    }
+    headers.put(name, value);
+    return this;
+  }
+
+  public Map<String, String> getHeaders() {
+    return headers == null ? Collections.<String, String>emptyMap() : headers;
+  }
+
+  /** @return The delivery options of the request when it is sent on the event bus */
+  public DeliveryOptions toDeliveryOptions() {
+    DeliveryOptions options = new DeliveryOptions();
+    options.addHeader("action", action.getName());
+    for (Map.Entry<String, String> header : getHeaders().entrySet()) {
+      options.addHeader(header.getKey(), header.getValue());
+    }
+    return options;
+  }
+}
@@ -5,6 +5,8 @@ import io.vertx.core.AbstractVerticle;
 import io.vertx.core.Future;
 import io.vertx.core.eventbus.Message;
 import io.vertx.core.json.JsonObject;
+import iudx.catalogue.codec.JsonEnvelope;
+import iudx.catalogue.metrics.MetricsRegistry;
 
 public class DatabaseVerticle extends AbstractVerticle {
 
@@ -12,16 +14,26 @@ public class DatabaseVerticle extends AbstractVerticle {
   private DatabaseInterface db;
   private static final String database_name = "catalogue";
 
+  /**
+   * Constructor used when the verticle is deployed by name, possibly as several instances. The
+   * database is then read from the "database" key of the configuration.
+   */
+  public DatabaseVerticle() {}
+
   /**
    * Constructor for DatabaseVerticle
    *
    * @param which_database The name of the database
    */
   public DatabaseVerticle(String which_database) {
+    db = database(which_database);
+  }
 
+  private static DatabaseInterface database(String which_database) {
     if ("mongo".equals(which_database)) {
-      db = new MongoDB();
+      return new MongoDB();
     }
+    return null;
   }
 
   @Override
@@ -29,7 +41,16 @@ public class DatabaseVerticle extends AbstractVerticle {
     JsonObject mongoconfig;
     String database_uri;
 
+    if (db == null) {
+      db = database(config().getString("database", "mongo"));
+      if (db == null) {
+        startFuture.fail("Unknown database " + config().getString("database"));
+        return;
+      }
+    }
+
     logger.info("Database Verticle started!");
+    JsonEnvelope.registerCodec(vertx);
     vertx
         .eventBus()
         .consumer(
@@ -45,10 +66,36 @@ public class DatabaseVerticle extends AbstractVerticle {
             + config().getInteger("mongo_port", 27017).toString();
 
     mongoconfig =
-        new JsonObject().put("connection_string", database_uri).put("db_name", database_name);
+        new JsonObject()
+            .put("connection_string", database_uri)
+            .put("db_name", database_name)
+            .put("maxPoolSize", config().getInteger("mongo_pool_size", 100))
+            .put("cache_size", config().getInteger("cache_size", 1000))
+            .put("cache_ttl", config().getLong("cache_ttl", 60000L))
+            .put("hit_flush_interval", config().getLong("hit_flush_interval", 5000L))
+            .put("hit_flush_threshold", config().getLong("hit_flush_threshold", 1000L));
+    if (config().containsKey("indexes")) {
+      mongoconfig.put("indexes", config().getJsonArray("indexes"));
+    }
 
     Future<Void> init_fut = db.initDB(vertx, mongoconfig);
-    init_fut.setHandler(startFuture.completer());
+    init_fut.setHandler(
+        init -> {
+          if (init.succeeded()) {
+            LocalDatabase.getInstance(vertx).register(db);
+          }
+          startFuture.handle(init);
+        });
+  }
+
+  @Override
+  public void stop(Future<Void> stopFuture) {
+    LocalDatabase.getInstance(vertx).unregister(db);
+    if (db == null) {
+      stopFuture.complete();
+      return;
+    }
+    db.close().setHandler(stopFuture.completer());
   }
 
   /**
@@ -58,70 +105,25 @@ public class DatabaseVerticle extends AbstractVerticle {
    */
   private void validateRequest(Message<Object> message) {
     // TODO Auto-generated method stub
+    message = JsonEnvelope.receive(message);
     logger.info("Database Verticle received message.body() = " + message.body());
 
     String action = (String) message.headers().get("action");
-
-    switch (action) {
-      case "list":
-        {
-          db.list(message);
-          break;
-        }
-
-      case "get-tags":
-        {
-          db.listTags(message);
-          break;
-        }
-
-      case "create":
-        {
-          db.create(message);
-          break;
-        }
-
-      case "update":
-        {
-          db.update(message);
-          break;
-        }
-
-      case "delete":
-        {
-          db.delete(message);
-          break;
-        }
-
-      case "search-attribute":
-        {
-          db.searchAttribute(message);
-          break;
-        }
-      case "count":
-      {
-    	  db.count(message);
-    	  break;
-      }
-      case "bulkcreate":
-      {
-    	  db.bulkCreate(message);
-    	  break;
-      }
-      case "bulkupdate":
-      {
-    	  db.bulkUpdate(message);
-    	  break;
-      }
-      case "bulkdelete":
-      {
-    	  db.bulkDelete(message);
-    	  break;
-      }
-      default:
-        {
-          break;
-        }
+    message =
+        MetricsRegistry.timed(
+            MetricsRegistry.getInstance(vertx)
+                .timer(
+                    "iudx_database_action_duration_seconds",
+                    "Time from receiving a database request to replying to it",
+                    "action",
+                    String.valueOf(action)),
+            message);
+
+    DatabaseAction databaseAction = DatabaseAction.fromName(action);
+    if (databaseAction == null) {
+      message.fail(0, "Unknown action: " + action);
+      return;
     }
+    db.handle(databaseAction, message);
   }
 }
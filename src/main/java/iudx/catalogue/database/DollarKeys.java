@@ -0,0 +1,86 @@
+package iudx.catalogue.database;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Escapes the keys of items which start with $, such as $schema and $ref in schema items, since
+ * Mongo does not store them. An escaped key starts with _$_ instead.
+ *
+ * <p>Both directions work in place on the maps and lists behind the JSON values, including
+ * objects nested in arrays. Nothing is allocated for an object none of whose keys have to be
+ * renamed, which is the case of almost every item.
+ */
+final class DollarKeys {
+
+  private static final String ESCAPED = "_$_";
+
+  private DollarKeys() {}
+
+  /**
+   * Escapes the keys of an item before it is written
+   *
+   * @param item The item, which is modified
+   * @return The item
+   */
+  static JsonObject escape(JsonObject item) {
+    transform(item.getMap(), true);
+    return item;
+  }
+
+  /**
+   * Restores the keys of an item which has been read
+   *
+   * @param item The item, which is modified
+   * @return The item
+   */
+  static JsonObject restore(JsonObject item) {
+    transform(item.getMap(), false);
+    return item;
+  }
+
+  private static void transform(Object value, boolean escape) {
+    if (value instanceof JsonObject) {
+      value = ((JsonObject) value).getMap();
+    } else if (value instanceof JsonArray) {
+      value = ((JsonArray) value).getList();
+    }
+
+    if (value instanceof Map) {
+      @SuppressWarnings("unchecked")
+      Map<String, Object> map = (Map<String, Object>) value;
+      boolean rename = false;
+      for (Map.Entry<String, Object> entry : map.entrySet()) {
+        rename |= needsRename(entry.getKey(), escape);
+        transform(entry.getValue(), escape);
+      }
+      if (rename) {
+        // Rebuilt rather than renamed one key at a time, which keeps the order of the keys
+        Map<String, Object> entries = new LinkedHashMap<String, Object>(map);
+        map.clear();
+        for (Map.Entry<String, Object> entry : entries.entrySet()) {
+          map.put(rename(entry.getKey(), escape), entry.getValue());
+        }
+      }
+    } else if (value instanceof List) {
+      for (Object element : (List<?>) value) {
+        transform(element, escape);
+      }
+    }
+  }
+
+  private static boolean needsRename(String key, boolean escape) {
+    return escape ? key.startsWith("$") : key.startsWith(ESCAPED);
+  }
+
+  private static String rename(String key, boolean escape) {
+    if (!needsRename(key, escape)) {
+      return key;
+    }
+    return escape ? ESCAPED + key.substring(1) : "$" + key.substring(ESCAPED.length());
+  }
+}
@@ -0,0 +1,211 @@
+package iudx.catalogue.database;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.mongo.IndexOptions;
+import io.vertx.ext.mongo.MongoClient;
+
+/**
+ * Builds the indexes of the item collection declared in the configuration, and reports the
+ * declared indexes that are missing, the indexes that are not declared and the ones that have not
+ * been used since the server started.
+ *
+ * <p>An index is declared as a JSON object with a name, a key and optionally unique, sparse and
+ * partialFilterExpression, as in createIndexes. The indexes are built in the background, so the
+ * catalogue starts serving before they are complete.
+ */
+class IndexManager {
+
+  private static final Logger logger = Logger.getLogger(IndexManager.class.getName());
+
+  /** Indexes that initDB creates itself, and which are not reported as undeclared */
+  private static final Set<String> BUILT_IN =
+      new HashSet<String>(Arrays.asList("_id_", "geoJsonLocation_2dsphere", "id_1"));
+
+  /** The indexes used by the queries of the catalogue, unless configured otherwise */
+  static final JsonArray DEFAULT_INDEXES =
+      new JsonArray()
+          .add(
+              new JsonObject()
+                  .put("name", "item-type_Status_id")
+                  .put("key", new JsonObject().put("item-type", 1).put("Status", 1).put("id", 1)))
+          .add(
+              new JsonObject()
+                  .put("name", "id_Status_live")
+                  // Not {id: 1}, which initDB already indexes without a partial filter
+                  .put("key", new JsonObject().put("id", 1).put("Status", 1))
+                  .put("partialFilterExpression", new JsonObject().put("Status", "Live")))
+          .add(
+              new JsonObject()
+                  .put("name", "_tags_live")
+                  .put("key", new JsonObject().put("_tags", 1))
+                  .put("partialFilterExpression", new JsonObject().put("Status", "Live")))
+          .add(
+              new JsonObject()
+                  .put("name", "bulk-id_item-type")
+                  .put("key", new JsonObject().put("bulk-id", 1).put("item-type", 1)));
+
+  private final MongoClient mongo;
+  private final String collection;
+  private final JsonArray indexes;
+
+  /**
+   * @param mongo The client of the database
+   * @param collection The item collection
+   * @param indexes The declared indexes
+   */
+  IndexManager(MongoClient mongo, String collection, JsonArray indexes) {
+    this.mongo = mongo;
+    this.collection = collection;
+    this.indexes = indexes;
+  }
+
+  /**
+   * Starts building the declared indexes which do not exist, then logs the report. Does not wait
+   * for the builds.
+   */
+  @SuppressWarnings("rawtypes")
+  void ensure() {
+    List<Future> builds = new ArrayList<Future>();
+    for (Object index : indexes) {
+      builds.add(build((JsonObject) index));
+    }
+    CompositeFuture.join(builds)
+        .setHandler(
+            built ->
+                report(
+                    report -> {
+                      if (report.succeeded()) {
+                        logger.info("Indexes of " + collection + ": " + report.result().encode());
+                      } else {
+                        logger.warning("Could not report the indexes: " + report.cause());
+                      }
+                    }));
+  }
+
+  private Future<Void> build(JsonObject index) {
+    Future<Void> built = Future.future();
+    String name = index.getString("name");
+    IndexOptions options = new IndexOptions().name(name).background(true);
+    if (index.containsKey("unique")) {
+      options.unique(index.getBoolean("unique"));
+    }
+    if (index.containsKey("sparse")) {
+      options.sparse(index.getBoolean("sparse"));
+    }
+    if (index.containsKey("partialFilterExpression")) {
+      options.partialFilterExpression(index.getJsonObject("partialFilterExpression"));
+    }
+
+    mongo.createIndexWithOptions(
+        collection,
+        index.getJsonObject("key"),
+        options,
+        ar -> {
+          if (ar.failed()) {
+            // Typically an index with the same key and other options, which has to be dropped
+            logger.warning("Could not build index " + name + ": " + ar.cause().getMessage());
+          }
+          built.handle(ar);
+        });
+    return built;
+  }
+
+  /**
+   * Reports the indexes of the collection. Index usage is counted by the server since it started,
+   * so an index reported as unused after a restart may still be needed.
+   *
+   * @param handler Called with the names of the missing, undeclared and unused indexes, and the
+   *     key and number of accesses of every index
+   */
+  void report(Handler<AsyncResult<JsonObject>> handler) {
+    mongo.listIndexes(
+        collection,
+        listed -> {
+          if (listed.failed()) {
+            handler.handle(Future.failedFuture(listed.cause()));
+            return;
+          }
+          JsonArray pipeline =
+              new JsonArray().add(new JsonObject().put("$indexStats", new JsonObject()));
+          JsonObject command =
+              new JsonObject()
+                  .put("aggregate", collection)
+                  .put("pipeline", pipeline)
+                  .put("cursor", new JsonObject());
+          mongo.runCommand(
+              "aggregate",
+              command,
+              stats -> {
+                if (stats.failed()) {
+                  handler.handle(Future.failedFuture(stats.cause()));
+                  return;
+                }
+                JsonArray usage =
+                    stats.result().getJsonObject("cursor").getJsonArray("firstBatch");
+                handler.handle(Future.succeededFuture(report(listed.result(), usage)));
+              });
+        });
+  }
+
+  private JsonObject report(JsonArray existing, JsonArray usage) {
+    // A replicated or sharded server reports the accesses of each member separately
+    Map<String, Long> accesses = new HashMap<String, Long>();
+    for (Object stat : usage) {
+      JsonObject s = (JsonObject) stat;
+      accesses.merge(
+          s.getString("name"), s.getJsonObject("accesses").getLong("ops", 0L), Long::sum);
+    }
+
+    Set<String> declared = new HashSet<String>();
+    for (Object index : indexes) {
+      declared.add(((JsonObject) index).getString("name"));
+    }
+
+    Set<String> present = new HashSet<String>();
+    JsonArray undeclared = new JsonArray();
+    JsonArray unused = new JsonArray();
+    JsonArray all = new JsonArray();
+    for (Object index : existing) {
+      JsonObject i = (JsonObject) index;
+      String name = i.getString("name");
+      long ops = accesses.getOrDefault(name, 0L);
+      present.add(name);
+      if (!declared.contains(name) && !BUILT_IN.contains(name)) {
+        undeclared.add(name);
+      }
+      if (ops == 0 && !"_id_".equals(name)) {
+        unused.add(name);
+      }
+      all.add(
+          new JsonObject().put("name", name).put("key", i.getJsonObject("key")).put("ops", ops));
+    }
+
+    JsonArray missing = new JsonArray();
+    for (String name : declared) {
+      if (!present.contains(name)) {
+        missing.add(name);
+      }
+    }
+
+    return new JsonObject()
+        .put("collection", collection)
+        .put("missing", missing)
+        .put("undeclared", undeclared)
+        .put("unused", unused)
+        .put("indexes", all);
+  }
+}
@@ -0,0 +1,92 @@
+package iudx.catalogue.database;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.eventbus.ReplyFailure;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+import iudx.catalogue.metrics.MetricsRegistry;
+
+/**
+ * The database instances deployed in a Vert.x instance. Every DatabaseVerticle registers its
+ * database once it is initialized, and verticles of the same JVM execute their requests directly on
+ * one of them, in turn, instead of sending them on the event bus. When no database is registered,
+ * as in a distributed deployment, requests go over the event bus.
+ */
+public class LocalDatabase implements Shareable {
+
+  private static final String SHARED_MAP = "iudx.catalogue.database";
+
+  private final List<DatabaseInterface> databases = new CopyOnWriteArrayList<DatabaseInterface>();
+  private final AtomicInteger next = new AtomicInteger();
+  private final MetricsRegistry metrics;
+
+  private LocalDatabase(MetricsRegistry metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * Returns the databases of a Vert.x instance
+   *
+   * @param vertx Reference to the Vert.x instance
+   * @return The shared registry of databases
+   */
+  public static LocalDatabase getInstance(Vertx vertx) {
+    synchronized (LocalDatabase.class) {
+      LocalMap<String, LocalDatabase> registries = vertx.sharedData().getLocalMap(SHARED_MAP);
+      LocalDatabase registry = registries.get("local-database");
+      if (registry == null) {
+        registry = new LocalDatabase(MetricsRegistry.getInstance(vertx));
+        registries.put("local-database", registry);
+      }
+      return registry;
+    }
+  }
+
+  void register(DatabaseInterface database) {
+    databases.add(database);
+  }
+
+  void unregister(DatabaseInterface database) {
+    databases.remove(database);
+  }
+
+  /** @return true if a database has been deployed in this Vert.x instance */
+  public boolean isAvailable() {
+    return !databases.isEmpty();
+  }
+
+  /**
+   * Executes a request directly on one of the databases
+   *
+   * @param request The request
+   * @return The reply of the database
+   */
+  public Future<DatabaseReply> execute(DatabaseRequest request) {
+    Future<DatabaseReply> reply = Future.future();
+    int size = databases.size();
+    if (size == 0) {
+      reply.fail(new ReplyException(ReplyFailure.NO_HANDLERS, "No database"));
+      return reply;
+    }
+
+    Handler<AsyncResult<DatabaseReply>> timed =
+        MetricsRegistry.timed(
+            metrics.timer(
+                "iudx_database_action_duration_seconds",
+                "Time from receiving a database request to replying to it",
+                "action",
+                request.getAction().getName()),
+            reply.completer());
+    DatabaseInterface database = databases.get(Math.floorMod(next.getAndIncrement(), size));
+    database.execute(request).setHandler(timed);
+    return reply;
+  }
+}
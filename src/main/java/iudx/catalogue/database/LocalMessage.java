@@ -0,0 +1,88 @@
+package iudx.catalogue.database;
+
+import java.util.Map;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.MultiMap;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.eventbus.ReplyFailure;
+
+/**
+ * The message handed to the database when a request is executed directly. Its reply completes a
+ * future instead of going back over the event bus, and a failure fails the future with the same
+ * ReplyException an event bus sender would receive.
+ */
+class LocalMessage implements Message<Object> {
+
+  private final DatabaseRequest request;
+  private final Future<DatabaseReply> reply;
+  private MultiMap headers;
+
+  LocalMessage(DatabaseRequest request, Future<DatabaseReply> reply) {
+    this.request = request;
+    this.reply = reply;
+  }
+
+  @Override
+  public String address() {
+    return "database";
+  }
+
+  @Override
+  public MultiMap headers() {
+    if (headers == null) {
+      headers = MultiMap.caseInsensitiveMultiMap();
+      headers.add("action", request.getAction().getName());
+      for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+        headers.add(header.getKey(), header.getValue());
+      }
+    }
+    return headers;
+  }
+
+  @Override
+  public Object body() {
+    return request.getBody();
+  }
+
+  @Override
+  public String replyAddress() {
+    return null;
+  }
+
+  public boolean isSend() {
+    return true;
+  }
+
+  @Override
+  public void reply(Object message) {
+    reply.tryComplete(new DatabaseReply(message, null));
+  }
+
+  @Override
+  public <R> void reply(Object message, Handler<AsyncResult<Message<R>>> replyHandler) {
+    reply(message);
+    replyHandler.handle(Future.failedFuture("Direct database calls do not accept replies"));
+  }
+
+  @Override
+  public void reply(Object message, DeliveryOptions options) {
+    reply.tryComplete(new DatabaseReply(message, options.getHeaders()));
+  }
+
+  @Override
+  public <R> void reply(
+      Object message, DeliveryOptions options, Handler<AsyncResult<Message<R>>> replyHandler) {
+    reply(message, options);
+    replyHandler.handle(Future.failedFuture("Direct database calls do not accept replies"));
+  }
+
+  @Override
+  public void fail(int failureCode, String failure) {
+    reply.tryFail(new ReplyException(ReplyFailure.RECIPIENT_FAILURE, failureCode, failure));
+  }
+}
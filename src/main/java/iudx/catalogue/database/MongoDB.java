@@ -1,6 +1,9 @@
 package iudx.catalogue.database;
 
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
 import io.vertx.core.eventbus.Message;
 import io.vertx.core.json.Json;
 import io.vertx.core.json.JsonArray;
@@ -8,26 +11,54 @@ import io.vertx.core.json.JsonObject;
 import io.vertx.core.AbstractVerticle;
 import io.vertx.core.Future;
 import io.vertx.ext.mongo.BulkOperation;
+import io.vertx.ext.mongo.BulkWriteOptions;
 import io.vertx.ext.mongo.FindOptions;
+import io.vertx.ext.mongo.IndexOptions;
 import io.vertx.ext.mongo.MongoClient;
 import io.vertx.ext.mongo.UpdateOptions;
+import io.vertx.core.streams.ReadStream;
+import iudx.catalogue.codec.JsonEnvelope;
+import iudx.catalogue.metrics.MetricsRegistry;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.logging.Logger;
 
 import org.apache.commons.lang3.StringUtils;
 
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+
 public class MongoDB extends AbstractVerticle implements DatabaseInterface {
 
+  private static final Logger logger = Logger.getLogger(MongoDB.class.getName());
+
   private MongoClient mongo;
+  private SearchCache cache;
+  private CollectionVersion version;
+  private SchemaRegistry schemas;
+  private MetricsRegistry metrics;
+  private TagHitCounter hits;
+  private IndexManager indexes;
+  private long hitFlushTimer = -1;
 
   private final String TAG_COLLECTION = "tags";
   private final String COLLECTION = "catalogue";
+  private static final String SHARED_MAP = "iudx.catalogue.database";
+  private static final String[] HIDDEN_FIELDS = {"_tags"};
+  private static final int STREAM_BATCH_SIZE = 100;
+  private static final long VALIDATION_TIMEOUT = 300000;
+  private static final List<String> SCHEMA_TYPES = Arrays.asList("base-schema", "data-model");
 
   /**
    * Constructor for MongoDB
@@ -38,14 +69,54 @@ public class MongoDB extends AbstractVerticle implements DatabaseInterface {
   public Future<Void> initDB(Vertx vertx, JsonObject mongoconfig) {
 
     Future<Void> init_fut = Future.future();
+    this.vertx = vertx;
     mongo = MongoClient.createShared(vertx, mongoconfig);
+    cache =
+        SearchCache.getInstance(
+            vertx,
+            mongoconfig.getInteger("cache_size", 1000),
+            mongoconfig.getLong("cache_ttl", 60000L));
+    version = CollectionVersion.getInstance(vertx);
+    schemas = SchemaRegistry.getInstance(vertx);
+    metrics = MetricsRegistry.getInstance(vertx);
+    indexes =
+        new IndexManager(
+            mongo,
+            COLLECTION,
+            mongoconfig.getJsonArray("indexes", IndexManager.DEFAULT_INDEXES.copy()));
+    hits =
+        new TagHitCounter(mongo, TAG_COLLECTION, mongoconfig.getLong("hit_flush_threshold", 1000L));
+    hitFlushTimer =
+        vertx.setPeriodic(
+            mongoconfig.getLong("hit_flush_interval", 5000L), id -> hits.flush(flushed -> {}));
+    for (String counter : new String[] {"size", "hits", "misses", "evictions", "invalidations"}) {
+      metrics.gauge(
+          "iudx_search_cache_" + counter,
+          "Search cache " + counter,
+          () -> cache.stats().getLong(counter));
+    }
 
     mongo.createIndex(
         COLLECTION,
         new JsonObject().put("geoJsonLocation", "2dsphere"),
         ar -> {
           if (ar.succeeded()) {
-            init_fut.complete();
+            // Paged lists and searches are sorted on id
+            mongo.createIndex(
+                COLLECTION,
+                new JsonObject().put("id", 1),
+                ar2 -> {
+                  if (ar2.succeeded()) {
+                    // Built by the first instance only, in the background
+                    if (vertx.sharedData().getLocalMap(SHARED_MAP).putIfAbsent("indexes", true)
+                        == null) {
+                      indexes.ensure();
+                    }
+                    createTagIndex(init_fut);
+                  } else {
+                    init_fut.fail(ar2.cause());
+                  }
+                });
           } else {
             init_fut.fail(ar.cause());
           }
@@ -53,71 +124,416 @@ public class MongoDB extends AbstractVerticle implements DatabaseInterface {
     return init_fut;
   }
   /**
-   * Searches the Mongo DB
+   * Creates the unique index on tag, which the upserts of the tag counters rely on to never create
+   * a tag twice. A collection that already holds duplicate tags cannot be indexed; this is logged
+   * and the catalogue starts without the index.
    *
-   * @param collection Name of the collection
-   * @param query Query to the MongoDB
-   * @param options Options specify the fields that will (not) be displayed
-   * @param message The message to which the result will be replied to
+   * @param init_fut Completed once the schemas are loaded
    */
-  private JsonObject addFieldsWithDOll(JsonObject res) {
-    JsonObject temp = new JsonObject();
-    Set<String> keysWithDoll = new HashSet<String>();
-    for (String key : res.fieldNames()) {
-      Object value = res.getValue(key);
-      if (key.length() >= 3 && key.substring(0, 3).equals("_$_")) {
-        keysWithDoll.add(key);
-        key = "$" + key.substring(3);
-        temp.put(key, value);
-      }
-      if (value.getClass() == JsonObject.class) {
-        JsonObject newVal = addFieldsWithDOll((JsonObject) value);
-        keysWithDoll.add(key);
-        temp.put(key, newVal);
-      }
+  private void createTagIndex(Future<Void> init_fut) {
+    mongo.createIndexWithOptions(
+        TAG_COLLECTION,
+        new JsonObject().put("tag", 1),
+        new IndexOptions().unique(true),
+        ar -> {
+          if (ar.failed()) {
+            logger.warning("Could not create the unique index on tags: " + ar.cause());
+          }
+          loadSchemas(init_fut);
+        });
+  }
+
+  /**
+   * Loads the live schema items into the schema registry, once per Vert.x instance
+   *
+   * @param init_fut Completed once the schemas are loaded
+   */
+  private void loadSchemas(Future<Void> init_fut) {
+    if (schemas.isLoaded()) {
+      init_fut.complete();
+      return;
+    }
+    JsonObject query =
+        new JsonObject()
+            .put("item-type", new JsonObject().put("$in", new JsonArray(SCHEMA_TYPES)))
+            .put("Status", "Live");
+    FindOptions options = new FindOptions().setFields(hideFields(new JsonObject().put("_id", 0)));
+    mongo.findWithOptions(
+        COLLECTION,
+        query,
+        options,
+        timed("find", res -> {
+          if (res.succeeded()) {
+            for (JsonObject schema : res.result()) {
+              schemas.put(schema.getString("id"), toResult(schema));
+            }
+            schemas.setLoaded();
+            init_fut.complete();
+          } else {
+            init_fut.fail(res.cause());
+          }
+        }));
+  }
+
+  /**
+   * Reloads a schema item into the schema registry after it has been written
+   *
+   * @param id The id of the schema item
+   */
+  private void refreshSchema(String id) {
+    schemas.remove(id);
+    readSchema(id, schema -> {});
+  }
+
+  /**
+   * Reads a live schema item, from the registry if it is there and otherwise from Mongo
+   *
+   * @param id The id of the schema item
+   * @param handler Called with the schema or with null if there is no such schema
+   */
+  private void readSchema(String id, Handler<JsonObject> handler) {
+    JsonObject schema = schemas.get(id);
+    if (schema != null) {
+      handler.handle(schema);
+      return;
+    }
+    JsonObject query =
+        new JsonObject()
+            .put("id", id)
+            .put("item-type", new JsonObject().put("$in", new JsonArray(SCHEMA_TYPES)))
+            .put("Status", "Live");
+    mongo.findOne(
+        COLLECTION,
+        query,
+        hideFields(new JsonObject().put("_id", 0)),
+        timed("find", res -> {
+          if (res.succeeded() && res.result() != null) {
+            JsonObject found = toResult(res.result());
+            schemas.put(id, found);
+            handler.handle(found);
+          } else {
+            handler.handle(null);
+          }
+        }));
+  }
+
+  @Override
+  public void readSchema(Message<Object> message) {
+    String id = ((JsonObject) message.body()).getString("id");
+    if (id == null) {
+      message.fail(0, "Bad query: id is missing");
+      return;
     }
-    for (String key : keysWithDoll) {
-      res.remove(key);
+    readSchema(
+        id,
+        schema -> {
+          if (schema == null) {
+            message.fail(0, "No such schema: " + id);
+          } else {
+            message.reply(schema);
+          }
+        });
+  }
+
+  /**
+   * Excludes the hidden fields from a projection. A projection which includes fields cannot also
+   * exclude some, and is left as it is.
+   *
+   * @param fields The projection, which is modified
+   * @return The projection
+   */
+  private static JsonObject hideFields(JsonObject fields) {
+    for (Map.Entry<String, Object> field : fields) {
+      Object value = field.getValue();
+      if (!"_id".equals(field.getKey())
+          && (Boolean.TRUE.equals(value)
+              || (value instanceof Number && ((Number) value).intValue() != 0))) {
+        return fields;
+      }
     }
-    for (String key : temp.fieldNames()) {
-      res.put(key, temp.getValue(key));
+    for (String hidden : HIDDEN_FIELDS) {
+      fields.put(hidden, 0);
     }
-    return res;
+    return fields;
   }
 
-  private void mongoFind(JsonObject query, JsonObject attributeFilter, Message<Object> message) {
+  private JsonObject toResult(JsonObject j) {
+    // Only there when the projection explicitly includes a hidden field
+    for (String hidden : HIDDEN_FIELDS) {
+      j.remove(hidden);
+    }
+    return DollarKeys.restore(j);
+  }
 
-    attributeFilter.put("_id", 0);
-    query.put("Status", "Live");
+  /**
+   * Searches the Mongo DB
+   *
+   * @param query Query to the MongoDB
+   * @param attributeFilter The fields that will (not) be displayed
+   * @param message The message to which the result will be replied to
+   * @param lookup The search cache entry which stores the result, or null if it is not cached
+   */
+  private void mongoFind(
+      JsonObject query,
+      JsonObject attributeFilter,
+      Message<Object> message,
+      SearchCache.Lookup lookup) {
+
+    if (message.headers().contains("stream-address")) {
+      mongoStream(query, attributeFilter, message);
+      return;
+    }
 
-    String[] hiddenFields = {"_tags"};
+    JsonObject request_body = (JsonObject) message.body();
+    Integer limit = request_body.getInteger("limit");
+    boolean hideId = false;
 
     FindOptions options = new FindOptions();
-    options.setFields(attributeFilter);
 
+    if (limit != null) {
+      // Keyset pagination: the cursor is the id of the last item of the previous page
+      if (request_body.containsKey("cursor")) {
+        String after = decodeCursor(request_body.getString("cursor"));
+        if (after == null) {
+          message.fail(0, "Bad query: Invalid cursor");
+          return;
+        }
+        query.put("id", new JsonObject().put("$gt", after));
+      }
+      if (!attributeFilter.isEmpty() && !attributeFilter.containsKey("id")) {
+        attributeFilter.put("id", 1);
+        hideId = true;
+      }
+      options.setSort(new JsonObject().put("id", 1));
+      options.setLimit(limit);
+    }
+
+    attributeFilter.put("_id", 0);
+    query.put("Status", "Live");
+    options.setFields(hideFields(attributeFilter));
+
+    boolean removeId = hideId;
     mongo.findWithOptions(
         COLLECTION,
         query,
         options,
-        res -> {
+        timed("find", res -> {
           if (res.succeeded()) {
             // Send back the response
             JsonArray rep = new JsonArray();
+            String lastId = null;
             for (JsonObject j : res.result()) {
-              for (String hidden : hiddenFields) {
-                if (j.containsKey(hidden)) {
-                  j.remove(hidden);
-                }
+              lastId = j.getString("id");
+              if (removeId) {
+                j.remove("id");
               }
-              j = addFieldsWithDOll(j);
-              rep.add(j);
+              rep.add(toResult(j));
             }
-            message.reply(rep);
+            String nextCursor = null;
+            if (limit != null && rep.size() == limit && lastId != null) {
+              nextCursor = encodeCursor(lastId);
+            }
+            if (lookup != null) {
+              lookup.store(rep, nextCursor);
+            }
+            replyWithPage(message, rep, nextCursor);
           } else {
             System.out.println(res.cause());
             message.fail(0, "failure");
           }
+        }));
+  }
+
+  /**
+   * Wraps the handler of a Mongo operation so that the duration of the operation is recorded
+   *
+   * @param operation The name of the operation
+   * @param handler The handler of the result
+   * @return The wrapped handler
+   */
+  private <T> Handler<AsyncResult<T>> timed(String operation, Handler<AsyncResult<T>> handler) {
+    return MetricsRegistry.timed(
+        metrics.timer(
+            "iudx_mongo_operation_duration_seconds",
+            "Duration of MongoDB operations",
+            "operation",
+            operation),
+        handler);
+  }
+
+  /**
+   * Called once a write to the catalogue has completed. Bumps the collection version used for
+   * ETags and drops the cached replies the write can affect.
+   *
+   * @param itemType The item-type of the item, null if not known
+   * @param id The id of the item, null if not known
+   * @param tags The tags of the item before and after the write, null if not known
+   */
+  private void itemsWritten(String itemType, String id, JsonArray tags) {
+    version.increment();
+    cache.invalidate(itemType, tags);
+    if (SCHEMA_TYPES.contains(itemType)) {
+      // Validators drop the compiled schema
+      refreshSchema(id);
+      vertx.eventBus().publish("schema.updated", new JsonObject().put("id", id));
+    }
+  }
+
+  private void replyWithPage(Message<Object> message, Object page, String nextCursor) {
+    DeliveryOptions replyOptions = new DeliveryOptions();
+    if (nextCursor != null) {
+      replyOptions.addHeader("next-cursor", nextCursor);
+    }
+    message.reply(page, replyOptions);
+  }
+
+  /**
+   * Looks up the reply to a list, search or count in the search cache. Streamed requests are not
+   * cached.
+   *
+   * @param action The database action
+   * @param message The request
+   * @param query The decoded query, used to find the item-types and tags the result depends on
+   * @return The lookup or null if the request is not cached. A hit has already been replied to.
+   */
+  private SearchCache.Lookup lookupCache(String action, Message<Object> message, JsonObject query) {
+    if (!cache.isEnabled() || message.headers().contains("stream-address")) {
+      return null;
+    }
+    SearchCache.Lookup lookup =
+        cache.lookup(
+            action,
+            (JsonObject) message.body(),
+            valuesOf(query, "item-type"),
+            valuesOf(query, "_tags"));
+    if (lookup.isHit()) {
+      replyWithPage(message, lookup.value(), lookup.nextCursor());
+    }
+    return lookup;
+  }
+
+  /**
+   * Returns the values a field is restricted to by a query, either directly or through an $in
+   * expression of the $and list built by decodeQuery.
+   *
+   * @return The values or null if the query does not restrict the field
+   */
+  private Set<String> valuesOf(JsonObject query, String field) {
+    Object value = query.getValue(field);
+    if (value == null && query.containsKey("$and")) {
+      for (Object expression : query.getJsonArray("$and")) {
+        if (((JsonObject) expression).containsKey(field)) {
+          value = ((JsonObject) expression).getValue(field);
+        }
+      }
+    }
+    if (value instanceof String) {
+      Set<String> values = new HashSet<String>();
+      values.add((String) value);
+      return values;
+    } else if (value instanceof JsonObject && ((JsonObject) value).containsKey("$in")) {
+      Set<String> values = new HashSet<String>();
+      for (Object v : ((JsonObject) value).getJsonArray("$in")) {
+        values.add(v.toString());
+      }
+      return values;
+    }
+    return null;
+  }
+
+  private String encodeCursor(String id) {
+    return Base64.getUrlEncoder()
+        .withoutPadding()
+        .encodeToString(id.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private String decodeCursor(String cursor) {
+    try {
+      return new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Streams the result of a find to the address given in the stream-address header instead of
+   * replying with the whole result. Documents are read from a batch cursor and sent in batches of
+   * STREAM_BATCH_SIZE. The cursor is paused until the receiver acknowledges a batch, so only one
+   * batch is held in memory whatever the size of the result. The original message is replied to
+   * once the cursor is opened. The last batch carries the end header, and a failure of the cursor
+   * or a batch which is not acknowledged within the stream-timeout header (in milliseconds) is sent
+   * to the stream address with the failure header.
+   *
+   * @param query Query to the MongoDB
+   * @param attributeFilter The fields that will (not) be displayed
+   * @param message The message which contains the stream-address header
+   */
+  private void mongoStream(JsonObject query, JsonObject attributeFilter, Message<Object> message) {
+
+    String address = message.headers().get("stream-address");
+    String timeout = message.headers().get("stream-timeout");
+    DeliveryOptions ackOptions = new DeliveryOptions();
+    if (timeout != null) {
+      ackOptions.setSendTimeout(Long.parseLong(timeout));
+    }
+    attributeFilter.put("_id", 0);
+    query.put("Status", "Live");
+
+    FindOptions options = new FindOptions();
+    options.setFields(hideFields(attributeFilter));
+    options.setBatchSize(STREAM_BATCH_SIZE);
+
+    ReadStream<JsonObject> cursor = mongo.findBatchWithOptions(COLLECTION, query, options);
+    JsonArray[] batch = {new JsonArray()};
+
+    cursor.exceptionHandler(
+        err -> {
+          logger.warning("Stream to " + address + " failed: " + err);
+          vertx
+              .eventBus()
+              .send(address, new JsonArray(), new DeliveryOptions().addHeader("failure", "true"));
+        });
+    cursor.handler(
+        doc -> {
+          batch[0].add(toResult(doc));
+          if (batch[0].size() >= STREAM_BATCH_SIZE) {
+            cursor.pause();
+            JsonArray full = batch[0];
+            batch[0] = new JsonArray();
+            vertx
+                .eventBus()
+                .send(
+                    address,
+                    JsonEnvelope.wrap(full),
+                    ackOptions,
+                    ack -> {
+                      if (ack.succeeded()) {
+                        cursor.resume();
+                      } else {
+                        // The receiver has gone away or is too slow, removing the handler closes
+                        // the cursor and the failure ends a response which is still open
+                        logger.warning("Stream to " + address + " failed: " + ack.cause());
+                        cursor.handler(null);
+                        vertx
+                            .eventBus()
+                            .send(
+                                address,
+                                new JsonArray(),
+                                new DeliveryOptions().addHeader("failure", "true"));
+                      }
+                    });
+          }
         });
+    cursor.endHandler(
+        end -> {
+          vertx
+              .eventBus()
+              .send(
+                  address,
+                  JsonEnvelope.wrap(batch[0]),
+                  new DeliveryOptions().addHeader("end", "true"));
+        });
+    message.reply("Success");
   }
 
   public void list(Message<Object> message) {
@@ -126,7 +542,27 @@ public class MongoDB extends AbstractVerticle implements DatabaseInterface {
     JsonObject query = new JsonObject();
     query.put("item-type", itemType);
 
-    mongoFind(query, new JsonObject(), message);
+    SearchCache.Lookup lookup = lookupCache("list", message, query);
+    if (lookup == null || !lookup.isHit()) {
+      mongoFind(query, new JsonObject(), message, lookup);
+    }
+  }
+
+  @Override
+  public void cacheStats(Message<Object> message) {
+    message.reply(cache.stats());
+  }
+
+  @Override
+  public void indexStats(Message<Object> message) {
+    indexes.report(
+        report -> {
+          if (report.succeeded()) {
+            message.reply(report.result());
+          } else {
+            message.fail(0, "Failure");
+          }
+        });
   }
 
   public void listTags(Message<Object> message) {
@@ -139,7 +575,7 @@ public class MongoDB extends AbstractVerticle implements DatabaseInterface {
         TAG_COLLECTION,
         query,
         options,
-        tags -> {
+        timed("find", tags -> {
           if (tags.succeeded()) {
             JsonArray tagCollection = new JsonArray();
             for (JsonObject j : tags.result()) {
@@ -149,179 +585,60 @@ public class MongoDB extends AbstractVerticle implements DatabaseInterface {
           } else {
             message.fail(0, "Failure");
           }
-        });
-  }
-
-  private void updateNoOfHits(JsonArray tags) {
-    JsonObject query = new JsonObject();
-    query.put("tag", new JsonObject().put("$in", tags));
-    mongo.find(
-        TAG_COLLECTION,
-        query,
-        searchedTags -> {
-          if (searchedTags.succeeded()) {
-            List<BulkOperation> bulk = new ArrayList<BulkOperation>();
-            for (JsonObject j : searchedTags.result()) {
-              j.put("noOfHits", (j.getInteger("noOfHits") + 1));
-              JsonObject filter = new JsonObject().put("tag", j.getString("tag"));
-              bulk.add(BulkOperation.createReplace(filter, j));
-            }
-            if (!bulk.isEmpty()) {
-              mongo.bulkWrite(TAG_COLLECTION, bulk, res2 -> {});
-            }
-          }
-        });
+        }));
   }
 
-  private JsonObject geo_search_query(JsonObject location) {
-    JsonObject query = new JsonObject();
-
-    if (location.getString("bounding-type").equals("circle")) {
-      double latitude = location.getDouble("lat");
-      double longitude = location.getDouble("long");
-      double rad = location.getDouble("radius", 1.0) * 1000.0;
-
-      query.put(
-          "$nearSphere",
-          new JsonObject()
-              .put(
-                  "$geometry",
-                  new JsonObject()
-                      .put("type", "Point")
-                      .put("coordinates", new JsonArray("[" + longitude + "," + latitude + "]")))
-              .put("$maxDistance", rad));
-    }
-    return query;
-  }
-
-  private String extractString(String s, int b) {
-    String ans;
-    int i;
-    for (i = b; i < s.length() - 1; i++) {
-      if (s.charAt(i) == ',' || s.charAt(i) == ')') {
-        break;
-      }
-    }
-    ans = s.substring(b, i);
-    return ans;
-  }
-
-  private JsonArray extractElements(String s) {
-    JsonArray elements = new JsonArray();
-    for (int i = 1; i < s.length() - 1; i++) {
-      if (s.charAt(i) == ',') {
-        continue;
-      } else {
-        JsonArray ele = new JsonArray();
-        if (s.charAt(i) == '(') {
-          int j;
-          for (j = i + 1; j < s.length() - 1; j++) {
-            String e = extractString(s, j);
-            ele.add(e);
-            j = j + e.length();
-            if (s.charAt(j) == ')') {
-              break;
-            }
-          }
-          i = j;
-          elements.add(ele);
-        } else {
-          String e = extractString(s, i);
-          i = i + e.length();
-          ele.add(e);
-          elements.add(ele);
-        }
-      }
+  /**
+   * Writes the pending search hits of tags
+   *
+   * @return Completed once they are written
+   */
+  @Override
+  public Future<Void> close() {
+    Future<Void> closed = Future.future();
+    if (hits == null) {
+      closed.complete();
+      return closed;
     }
-    return elements;
+    vertx.cancelTimer(hitFlushTimer);
+    hits.flush(closed.completer());
+    return closed;
   }
 
+  /**
+   * Decodes the attribute-name and attribute-value of a search or count into a Mongo filter. The
+   * query is parsed and compiled once by AttributeQuery and reused for repeated queries.
+   *
+   * @param requestBody The request which contains the query
+   * @return The filter or null if the query is invalid
+   */
   private JsonObject decodeQuery(JsonObject requestBody) {
-    JsonObject query = new JsonObject();
 
     if (requestBody.containsKey("attribute-name") && requestBody.containsKey("attribute-value")) {
-      JsonArray attributeNames = extractElements(requestBody.getString("attribute-name"));
-      JsonArray attributeValues = extractElements(requestBody.getString("attribute-value"));
-
-      if (attributeNames.size() != attributeValues.size()) {
+      AttributeQuery query =
+          AttributeQuery.compile(
+              requestBody.getString("attribute-name"), requestBody.getString("attribute-value"));
+      if (query == null) {
         return null;
       }
-
-      JsonArray expressions = new JsonArray();
-      for (int i = 0; i < attributeNames.size(); i++) {
-        String key = attributeNames.getJsonArray(i).getString(0);
-        JsonArray value = attributeValues.getJsonArray(i);
-        //        System.out.println(key);
-        //        System.out.println(value.size() );
-        //        for (int j = 0; j < value.size(); j++) {
-        //          System.out.print(value.getString(j) +" "+ value.getString(j).length());
-        //        }
-        //        System.out.println();
-
-        if (key.equalsIgnoreCase("tags")) {
-          key = "_tags";
-          JsonArray tags = attributeValues.getJsonArray(i);
-          value = new JsonArray();
-          for (Object tag : tags) {
-            value.add(((String) tag).toLowerCase());
-          }
-          updateNoOfHits(value);
-        } else if (key.equalsIgnoreCase("location")) {
-          JsonObject location = new JsonObject();
-          for (Object param : value) {
-            String k = ((String) param).split(":")[0];
-            String v = ((String) param).split(":")[1];
-            System.out.println(k + " " + v);
-            if (k.equalsIgnoreCase("bounding-type")) {
-              location.put(k, v);
-            } else {
-              location.put(k, Double.parseDouble(v));
-            }
-          }
-
-          key = "geoJsonLocation";
-          JsonObject value2 = geo_search_query(location);
-          JsonObject q = new JsonObject();
-          q.put(key, value2);
-          expressions.add(q);
-          continue;
-        } else if (key.charAt(0) == '$') {
-          key = "_$_" + key.substring(1);
-        }
-        JsonObject q = new JsonObject();
-
-        q.put(key, new JsonObject().put("$in", value));
-        expressions.add(q);
+      if (query.getTags() != null) {
+        // Counted in memory, the search does not wait for the tag collection
+        hits.hit(query.getTags());
       }
-      query.put("$and", expressions);
+      return query.filter();
     } else if (requestBody.containsKey("attribute-name")
-        && !requestBody.containsKey("attribute-value")) {
-      query = null;
-    } else if (!requestBody.containsKey("attribute-name")
-        && requestBody.containsKey("attribute-value")) {
-      query = null;
-
+        || requestBody.containsKey("attribute-value")) {
+      return null;
     } else {
-      query = new JsonObject();
+      return new JsonObject();
     }
-
-    return query;
   }
 
   private JsonObject decodeFields(JsonObject requestBody) {
-    JsonObject fields = new JsonObject();
     if (requestBody.containsKey("attribute-filter")) {
-      JsonArray attributeFilter = extractElements(requestBody.getString("attribute-filter"));
-      for (int i = 0; i < attributeFilter.size(); i++) {
-        String field = attributeFilter.getJsonArray(i).getString(0);
-        if (field.charAt(0) == '$') {
-          field = "_$_" + field.substring(1);
-        }
-        fields.put(field, 1);
-      }
+      return AttributeQuery.fields(requestBody.getString("attribute-filter"));
     }
-
-    return fields;
+    return new JsonObject();
   }
 
   @Override
@@ -330,11 +647,60 @@ public class MongoDB extends AbstractVerticle implements DatabaseInterface {
     JsonObject request_body = (JsonObject) message.body();
     JsonObject query = decodeQuery(request_body);
     JsonObject fields = decodeFields(request_body);
-    if (query == null) {
+    if (query == null || fields == null) {
       message.fail(0, "Bad query: Number of attributes is not equal to number of number of values");
     } else {
-      mongoFind(query, fields, message);
+      SearchCache.Lookup lookup = lookupCache("search-attribute", message, query);
+      if (lookup == null || !lookup.isHit()) {
+        mongoFind(query, fields, message, lookup);
+      }
+    }
+  }
+
+  @Override
+  public void batchGet(Message<Object> message) {
+    JsonObject request_body = (JsonObject) message.body();
+    JsonArray ids = request_body.getJsonArray("ids");
+    JsonObject fields = decodeFields(request_body);
+    if (fields == null) {
+      message.fail(0, "Bad query: Invalid attribute-filter");
+      return;
+    }
+
+    // The id is needed to put the results in the order of the request, and is always returned so
+    // that found items have the same shape as the ones which were not found
+    if (!fields.isEmpty()) {
+      fields.put("id", 1);
     }
+    fields.put("_id", 0);
+
+    JsonObject query =
+        new JsonObject().put("id", new JsonObject().put("$in", ids)).put("Status", "Live");
+    FindOptions options = new FindOptions().setFields(hideFields(fields));
+    mongo.findWithOptions(
+        COLLECTION,
+        query,
+        options,
+        timed("find", res -> {
+          if (res.succeeded()) {
+            Map<String, JsonObject> found = new HashMap<String, JsonObject>();
+            for (JsonObject j : res.result()) {
+              found.put(j.getString("id"), toResult(j));
+            }
+            JsonArray rep = new JsonArray();
+            for (Object id : ids) {
+              JsonObject item = found.get(id);
+              if (item == null) {
+                rep.add(new JsonObject().put("id", id).put("status", "not-found"));
+              } else {
+                rep.add(item);
+              }
+            }
+            message.reply(rep);
+          } else {
+            message.fail(0, "failure");
+          }
+        }));
   }
 
   @Override
@@ -345,20 +711,27 @@ public class MongoDB extends AbstractVerticle implements DatabaseInterface {
     if (query == null) {
       message.fail(0, "Bad query: Number of attributes is not equal to number of number of values");
     } else {
+      SearchCache.Lookup lookup = lookupCache("count", message, query);
+      if (lookup != null && lookup.isHit()) {
+        return;
+      }
       query.put("Status", "Live");
       mongo.count(
           COLLECTION,
           query,
-          result -> {
+          timed("count", result -> {
             if (result.succeeded()) {
               JsonObject num = new JsonObject();
               long numItems = result.result();
               num.put("Count", numItems);
+              if (lookup != null) {
+                lookup.store(num, null);
+              }
               message.reply(num);
             } else {
               message.fail(0, "Failure");
             }
-          });
+          }));
     }
   }
 
@@ -398,103 +771,159 @@ public class MongoDB extends AbstractVerticle implements DatabaseInterface {
   }
 
   private void writeTags(JsonArray tags) {
-    JsonObject query = new JsonObject();
-    query.put("tag", new JsonObject().put("$in", tags));
-    mongo.find(
-        TAG_COLLECTION,
-        query,
-        already_present_tags -> {
-          if (already_present_tags.succeeded()) {
-            List<BulkOperation> bulk = new ArrayList<BulkOperation>();
-            Set<String> tags_completed = new HashSet<String>();
-            for (JsonObject j : already_present_tags.result()) {
-              tags_completed.add(j.getString("tag"));
-              j.put("noOfItems", (j.getInteger("noOfItems") + 1));
-              JsonObject filter = new JsonObject().put("tag", j.getString("tag"));
-              bulk.add(BulkOperation.createReplace(filter, j));
-            }
-            for (Object tag : tags) {
-              if (tags_completed.contains((String) tag)) {
-                continue;
-              }
-              JsonObject ins = new JsonObject();
-              ins.put("tag", (String) tag);
-              ins.put("noOfHits", 0);
-              ins.put("noOfItems", 1);
-              bulk.add(BulkOperation.createInsert(ins));
-            }
-            if (!bulk.isEmpty()) {
-              mongo.bulkWrite(TAG_COLLECTION, bulk, tagsUpdated -> {});
-            }
-          }
-        });
+    Map<String, Integer> counts = new HashMap<String, Integer>();
+    countTags(counts, tags, 1);
+    updateTagCounts(counts);
   }
 
-  private JsonObject removeDollar(JsonObject item) {
-    Set<String> keysWithDol = new HashSet<String>();
-    JsonObject temp = new JsonObject();
+  /**
+   * Adds the tags of an item to a change of the number of items per tag
+   *
+   * @param counts The change per tag
+   * @param tags The tags of the item, each counted once
+   * @param delta 1 if the item is written, -1 if it is removed
+   */
+  private static void countTags(Map<String, Integer> counts, JsonArray tags, int delta) {
+    for (Object tag : new LinkedHashSet<Object>(tags.getList())) {
+      counts.merge((String) tag, delta, Integer::sum);
+    }
+  }
 
-    for (String key : item.fieldNames()) {
-      Object value = item.getValue(key);
-      if (key.charAt(0) == '$') {
-        keysWithDol.add(key);
-        key = "_$_" + key.substring(1);
-        temp.put(key, value);
+  /**
+   * Changes the number of items of tags in a single unordered bulk write of $inc updates. A tag
+   * that does not exist is created by an upsert, and tags that are left without items are then
+   * deleted, so concurrent writers never lose a count.
+   *
+   * @param counts The change per tag
+   */
+  private void updateTagCounts(Map<String, Integer> counts) {
+    List<BulkOperation> bulk = new ArrayList<BulkOperation>();
+    JsonArray decremented = new JsonArray();
+    for (Map.Entry<String, Integer> count : counts.entrySet()) {
+      int delta = count.getValue();
+      if (delta == 0) {
+        continue;
       }
-      if (value.getClass() == JsonObject.class) {
-        JsonObject newVal = removeDollar((JsonObject) value);
-        keysWithDol.add(key);
-        temp.put(key, newVal);
+      JsonObject update = new JsonObject().put("$inc", new JsonObject().put("noOfItems", delta));
+      if (delta > 0) {
+        update.put("$setOnInsert", new JsonObject().put("noOfHits", 0));
+      } else {
+        decremented.add(count.getKey());
       }
+      bulk.add(
+          BulkOperation.createUpdate(
+              new JsonObject().put("tag", count.getKey()), update, delta > 0, false));
     }
-    for (String key : keysWithDol) {
-      item.remove(key);
+    if (bulk.isEmpty()) {
+      return;
     }
-    for (String key : temp.fieldNames()) {
-      item.put(key, temp.getValue(key));
+    writeTagCounts(bulk, true, decremented);
+  }
+
+  private void writeTagCounts(List<BulkOperation> bulk, boolean retry, JsonArray decremented) {
+    mongo.bulkWriteWithOptions(
+        TAG_COLLECTION,
+        bulk,
+        new BulkWriteOptions(false),
+        timed("bulkWrite", written -> {
+          if (written.failed()) {
+            List<BulkOperation> duplicates = duplicateUpserts(bulk, written.cause());
+            if (retry && duplicates != null) {
+              // Another writer created these tags first, the retry matches and increments them
+              writeTagCounts(duplicates, false, decremented);
+              return;
+            }
+            logger.warning("Could not update the tag counts: " + written.cause());
+          }
+          if (!decremented.isEmpty()) {
+            JsonObject empty =
+                new JsonObject()
+                    .put("tag", new JsonObject().put("$in", decremented))
+                    .put("noOfItems", new JsonObject().put("$lte", 0));
+            mongo.removeDocuments(TAG_COLLECTION, empty, timed("removeDocuments", removed -> {}));
+          }
+        }));
+  }
+
+  /**
+   * @return The operations of an unordered bulk write that failed only because their upsert raced
+   *     with another one on the unique tag index, or null if anything else failed
+   */
+  private static List<BulkOperation> duplicateUpserts(List<BulkOperation> bulk, Throwable cause) {
+    if (!(cause instanceof MongoBulkWriteException)) {
+      return null;
     }
-    return item;
+    List<BulkOperation> duplicates = new ArrayList<BulkOperation>();
+    for (BulkWriteError error : ((MongoBulkWriteException) cause).getWriteErrors()) {
+      if (error.getCode() != 11000) {
+        return null;
+      }
+      duplicates.add(bulk.get(error.getIndex()));
+    }
+    return duplicates;
+  }
+
+  /**
+   * Reads back the tags of the items of a bulk write which failed or did not apply to every item,
+   * so that only the items it wrote change the tag counts
+   *
+   * @param ids The ids of the items
+   * @param handler Called with the tags of each item which is in the collection, by id
+   */
+  private void currentTags(JsonArray ids, Handler<AsyncResult<Map<String, JsonArray>>> handler) {
+    JsonObject query = new JsonObject().put("id", new JsonObject().put("$in", ids));
+    FindOptions options =
+        new FindOptions().setFields(new JsonObject().put("id", 1).put("_tags", 1).put("_id", 0));
+    mongo.findWithOptions(
+        COLLECTION,
+        query,
+        options,
+        timed("find", res -> {
+          if (res.failed()) {
+            logger.warning("Could not read back the tags of a bulk write: " + res.cause());
+            handler.handle(Future.failedFuture(res.cause()));
+            return;
+          }
+          Map<String, JsonArray> tags = new HashMap<String, JsonArray>();
+          for (JsonObject item : res.result()) {
+            tags.put(item.getString("id"), item.getJsonArray("_tags", new JsonArray()));
+          }
+          handler.handle(Future.succeededFuture(tags));
+        }));
   }
 
   @Override
   public void create(Message<Object> message) {
 
     JsonObject request_body = (JsonObject) message.body();
-    JsonObject itemWithoutDol = removeDollar(request_body);
+    JsonObject itemWithoutDol = DollarKeys.escape(request_body);
     JsonObject updated_item = addNewAttributes(itemWithoutDol, 1, true, null);
 
     mongo.insert(
         COLLECTION,
         updated_item,
-        res -> {
+        timed("insert", res -> {
           if (res.succeeded()) {
             if (updated_item.containsKey("_tags")) {
               writeTags(updated_item.getJsonArray("_tags"));
             }
+            itemsWritten(
+                updated_item.getString("item-type"),
+                updated_item.getString("id"),
+                updated_item.getJsonArray("_tags", new JsonArray()));
             message.reply(updated_item.getString("id"));
           } else {
             message.fail(0, "failure");
           }
-        });
+        }));
   }
 
   private void updateTags(JsonArray old_tags, JsonArray new_tags) {
-    JsonArray toDelete = new JsonArray();
-    for (Object t : old_tags) {
-      if (new_tags.contains(((String) t))) {
-        // Don't change the item count
-        new_tags.remove(t);
-      } else {
-        // Decrease its count
-        toDelete.add(t);
-      }
-    }
-    if (!new_tags.isEmpty()) {
-      writeTags(new_tags);
-    }
-    if (!toDelete.isEmpty()) {
-      deleteTags(toDelete);
-    }
+    Map<String, Integer> counts = new HashMap<String, Integer>();
+    // Tags the item keeps add up to no change
+    countTags(counts, old_tags, -1);
+    countTags(counts, new_tags, 1);
+    updateTagCounts(counts);
   }
 
   @Override
@@ -517,7 +946,7 @@ public class MongoDB extends AbstractVerticle implements DatabaseInterface {
         COLLECTION,
         query,
         options,
-        res -> {
+        timed("find", res -> {
           if (res.succeeded()) {
             int version;
             if (res.result().isEmpty()) {
@@ -539,11 +968,14 @@ public class MongoDB extends AbstractVerticle implements DatabaseInterface {
                   COLLECTION,
                   query,
                   update,
-                  res2 -> {
+                  timed("update", res2 -> {
                     if (res2.succeeded()) {
                       JsonObject updated_item =
                           addNewAttributes(request_body, version + 1, false, null);
                       updated_item.put("id", id);
+                      JsonArray written_tags =
+                          old_item.getJsonArray("_tags", new JsonArray()).copy();
+                      written_tags.addAll(updated_item.getJsonArray("_tags", new JsonArray()));
                       if (old_item.containsKey("_tags")) {
                         JsonArray old_tags = old_item.getJsonArray("_tags");
                         if (updated_item.containsKey("_tags")) {
@@ -562,47 +994,29 @@ public class MongoDB extends AbstractVerticle implements DatabaseInterface {
                       mongo.insert(
                           COLLECTION,
                           updated_item,
-                          res3 -> {
+                          timed("insert", res3 -> {
+                            itemsWritten(itemType, id, written_tags);
                             if (res3.succeeded()) {
                               message.reply("Success");
                             } else {
                               message.fail(0, "failure");
                             }
-                          });
+                          }));
                     } else {
                       message.fail(0, "failure");
                     }
-                  });
+                  }));
             }
           } else {
             message.fail(0, "failure");
           }
-        });
+        }));
   }
 
   private void deleteTags(JsonArray tags) {
-    JsonObject query = new JsonObject();
-    query.put("tag", new JsonObject().put("$in", tags));
-    mongo.find(
-        TAG_COLLECTION,
-        query,
-        find_tags -> {
-          if (find_tags.succeeded()) {
-            List<BulkOperation> bulk = new ArrayList<BulkOperation>();
-            for (JsonObject j : find_tags.result()) {
-              j.put("noOfItems", (j.getInteger("noOfItems") - 1));
-              JsonObject filter = new JsonObject().put("tag", j.getString("tag"));
-              if (j.getInteger("noOfItems") > 0) {
-                bulk.add(BulkOperation.createReplace(filter, j));
-              } else {
-                bulk.add(BulkOperation.createDelete(filter));
-              }
-            }
-            if (!bulk.isEmpty()) {
-              mongo.bulkWrite(TAG_COLLECTION, bulk, res2 -> {});
-            }
-          }
-        });
+    Map<String, Integer> counts = new HashMap<String, Integer>();
+    countTags(counts, tags, -1);
+    updateTagCounts(counts);
   }
 
   @Override
@@ -618,18 +1032,22 @@ public class MongoDB extends AbstractVerticle implements DatabaseInterface {
     mongo.findOneAndDelete(
         COLLECTION,
         query,
-        res -> {
+        timed("findOneAndDelete", res -> {
           if (res.succeeded() && !(res.result() == null)) {
             if (res.result().containsKey("_tags")) {
               deleteTags(res.result().getJsonArray("_tags"));
             }
+            itemsWritten(
+                res.result().getString("item-type"),
+                res.result().getString("id"),
+                res.result().getJsonArray("_tags", new JsonArray()));
             message.reply("Success");
           } else if (res.result() == null) {
             message.fail(0, "Item not found");
           } else {
             message.fail(0, "Failure");
           }
-        });
+        }));
   }
 
   @Override
@@ -638,32 +1056,106 @@ public class MongoDB extends AbstractVerticle implements DatabaseInterface {
     JsonObject request_body = (JsonObject) message.body();
     JsonArray items = request_body.getJsonArray("items");
     String bulkId = request_body.getString("bulk-id");
+
+    if (!"true".equals(message.headers().get("validate"))) {
+      insertBulk(message, bulkId, items, null);
+      return;
+    }
+
+    // Only the items that are valid against their schema are inserted
+    DeliveryOptions validator_action =
+        new DeliveryOptions()
+            .addHeader("action", "validate-items")
+            .setSendTimeout(VALIDATION_TIMEOUT);
+    vertx
+        .eventBus()
+        .send(
+            "validator",
+            JsonEnvelope.wrap(new JsonObject().put("items", items)),
+            validator_action,
+            validator_reply -> {
+              if (validator_reply.succeeded()) {
+                JsonObject report =
+                    (JsonObject) JsonEnvelope.unwrap(validator_reply.result().body());
+                insertBulk(message, bulkId, items, report);
+              } else {
+                message.fail(0, "Failure");
+              }
+            });
+  }
+
+  /**
+   * Inserts the items of a bulk create
+   *
+   * @param message The message to which the ids of the items are replied
+   * @param bulkId The bulk-id of the items
+   * @param items The items
+   * @param report The validation report of the items, null if they were not validated. The invalid
+   *     items are skipped, and the report is replied with the id of every inserted item.
+   */
+  private void insertBulk(
+      Message<Object> message, String bulkId, JsonArray items, JsonObject report) {
+    JsonArray results = (report == null) ? null : report.getJsonArray("results");
     JsonArray itemIds = new JsonArray();
+    List<JsonArray> item_tags = new ArrayList<JsonArray>();
     List<BulkOperation> bulk_create = new ArrayList<BulkOperation>();
     for (int i = 0; i < items.size(); i++) {
+      if (results != null && !"valid".equals(results.getJsonObject(i).getString("status"))) {
+        continue;
+      }
       JsonObject item = items.getJsonObject(i);
-      item = removeDollar(item);
+      item = DollarKeys.escape(item);
       JsonObject itemWithAttr = addNewAttributes(item, 1, true, bulkId);
       itemIds.add(itemWithAttr.getString("id"));
-      if (itemWithAttr.containsKey("_tags")) {
-        writeTags(itemWithAttr.getJsonArray("_tags"));
+      if (results != null) {
+        results.getJsonObject(i).put("id", itemWithAttr.getString("id"));
       }
+      item_tags.add(itemWithAttr.getJsonArray("_tags", new JsonArray()));
       bulk_create.add(BulkOperation.createInsert(itemWithAttr));
     }
-    if (!bulk_create.isEmpty()) {
+
+    JsonObject reply = new JsonObject();
+    reply.put("bulk-id", bulkId);
+    reply.put("items", itemIds);
+    if (report != null) {
+      reply.put("valid", report.getInteger("valid"));
+      reply.put("invalid", report.getInteger("invalid"));
+      reply.put("results", results);
+    }
+    if (bulk_create.isEmpty()) {
+      message.reply(reply);
+    } else {
       mongo.bulkWrite(
           COLLECTION,
           bulk_create,
-          bulkWrite -> {
+          timed("bulkWrite", bulkWrite -> {
+            if (bulkWrite.succeeded()) {
+              Map<String, Integer> tag_counts = new HashMap<String, Integer>();
+              for (JsonArray tags : item_tags) {
+                countTags(tag_counts, tags, 1);
+              }
+              updateTagCounts(tag_counts);
+            } else {
+              // Only the items that were inserted before the write failed are counted
+              currentTags(
+                  itemIds,
+                  inserted -> {
+                    if (inserted.succeeded()) {
+                      Map<String, Integer> tag_counts = new HashMap<String, Integer>();
+                      for (JsonArray tags : inserted.result().values()) {
+                        countTags(tag_counts, tags, 1);
+                      }
+                      updateTagCounts(tag_counts);
+                    }
+                  });
+            }
+            itemsWritten(null, null, null);
             if (bulkWrite.succeeded()) {
-              JsonObject reply = new JsonObject();
-              reply.put("bulk-id", bulkId);
-              reply.put("items", itemIds);
               message.reply(reply);
             } else {
               message.fail(0, "Failure");
             }
-          });
+          }));
     }
   }
 
@@ -678,22 +1170,35 @@ public class MongoDB extends AbstractVerticle implements DatabaseInterface {
     mongo.find(
         COLLECTION,
         query,
-        documents -> {
+        timed("find", documents -> {
           if (documents.succeeded()) {
             List<JsonObject> items = documents.result();
             if (items.size() == 0) {
               message.fail(0, "No such bulk-id");
             } else {
+              // Only the items that were found are removed, so that their tags can be counted
+              JsonArray ids = new JsonArray();
               for (JsonObject item : items) {
-                if (item.containsKey("_tags")) {
-                  JsonArray tags = item.getJsonArray("_tags");
-                  deleteTags(tags);
-                }
+                ids.add(item.getString("id"));
               }
+              JsonObject found = query.copy().put("id", new JsonObject().put("$in", ids));
               mongo.removeDocuments(
                   COLLECTION,
-                  query,
-                  deleteItems -> {
+                  found,
+                  timed("remove", deleteItems -> {
+                    if (deleteItems.succeeded()
+                        && deleteItems.result().getRemovedCount() == items.size()) {
+                      removeTags(items, null);
+                    } else {
+                      currentTags(
+                          ids,
+                          remaining -> {
+                            if (remaining.succeeded()) {
+                              removeTags(items, remaining.result());
+                            }
+                          });
+                    }
+                    itemsWritten(null, null, null);
                     if (deleteItems.succeeded()) {
                       JsonObject reply = new JsonObject();
                       reply.put("bulk-id", bulkId);
@@ -702,12 +1207,47 @@ public class MongoDB extends AbstractVerticle implements DatabaseInterface {
                     } else {
                       message.fail(0, "Failure");
                     }
-                  });
+                  }));
             }
           } else {
             message.fail(0, "Failure");
           }
-        });
+        }));
+  }
+
+  /**
+   * Removes the tags of the items of a bulk delete from the tag counts
+   *
+   * @param items The items that were to be removed
+   * @param remaining The tags of the items still in the collection, by id, null if all were removed
+   */
+  private void removeTags(List<JsonObject> items, Map<String, JsonArray> remaining) {
+    Map<String, Integer> tag_counts = new HashMap<String, Integer>();
+    for (JsonObject item : items) {
+      if (remaining == null || !remaining.containsKey(item.getString("id"))) {
+        countTags(tag_counts, item.getJsonArray("_tags", new JsonArray()), -1);
+      }
+    }
+    updateTagCounts(tag_counts);
+  }
+
+  /**
+   * Moves the items of a bulk update from their old tags to the new ones in the tag counts
+   *
+   * @param items The items as they were before the update
+   * @param new_tags The tags set by the update
+   * @param current The tags of the items after a partial update, by id, null if all were updated
+   */
+  private void retagItems(
+      List<JsonObject> items, JsonArray new_tags, Map<String, JsonArray> current) {
+    Map<String, Integer> tag_counts = new HashMap<String, Integer>();
+    for (JsonObject item : items) {
+      if (current == null || new_tags.equals(current.get(item.getString("id")))) {
+        countTags(tag_counts, item.getJsonArray("_tags", new JsonArray()), -1);
+        countTags(tag_counts, new_tags, 1);
+      }
+    }
+    updateTagCounts(tag_counts);
   }
 
   @Override
@@ -721,7 +1261,7 @@ public class MongoDB extends AbstractVerticle implements DatabaseInterface {
     mongo.find(
         COLLECTION,
         query,
-        itemsToUpdate -> {
+        timed("find", itemsToUpdate -> {
           if (itemsToUpdate.succeeded()) {
             if (itemsToUpdate.result().size() != 0) {
 
@@ -738,25 +1278,40 @@ public class MongoDB extends AbstractVerticle implements DatabaseInterface {
                   tagsInLowerCase.add(((String) i).toLowerCase());
                 }
                 requestBody.put("_tags", tagsInLowerCase);
-                for (JsonObject item : itemsToUpdate.result()) {
-                  if (item.containsKey("_tags")) {
-                    JsonArray oldTags = item.getJsonArray("_tags");
-                    updateTags(oldTags, tagsInLowerCase);
-                  } else {
-                    writeTags(tagsInLowerCase);
-                  }
-                }
               }
+              List<JsonObject> items = itemsToUpdate.result();
+              JsonArray new_tags = tagsPresent ? requestBody.getJsonArray("_tags") : null;
+              // Only the items that were found are updated, so that their tags can be counted
+              JsonArray ids = new JsonArray();
+              for (JsonObject item : items) {
+                ids.add(item.getString("id"));
+              }
+              JsonObject found = query.copy().put("id", new JsonObject().put("$in", ids));
               requestBody.put("Last modified on", new java.util.Date().toString());
               JsonObject update = new JsonObject().put("$set", requestBody);
               UpdateOptions options = new UpdateOptions();
               options.setMulti(true);
               mongo.updateCollectionWithOptions(
                   COLLECTION,
-                  query,
+                  found,
                   update,
                   options,
-                  updateResult -> {
+                  timed("update", updateResult -> {
+                    if (new_tags != null) {
+                      if (updateResult.succeeded()
+                          && updateResult.result().getDocMatched() == items.size()) {
+                        retagItems(items, new_tags, null);
+                      } else {
+                        currentTags(
+                            ids,
+                            current -> {
+                              if (current.succeeded()) {
+                                retagItems(items, new_tags, current.result());
+                              }
+                            });
+                      }
+                    }
+                    itemsWritten(null, null, null);
                     if (updateResult.succeeded()) {
                       System.out.println("Should have worked");
                       JsonObject reply = new JsonObject();
@@ -766,7 +1321,7 @@ public class MongoDB extends AbstractVerticle implements DatabaseInterface {
                     } else {
                       message.fail(0, "Failure");
                     }
-                  });
+                  }));
 
             } else {
               message.fail(0, "No such bulk-id");
@@ -774,6 +1329,6 @@ public class MongoDB extends AbstractVerticle implements DatabaseInterface {
           } else {
             message.fail(0, "Failure");
           }
-        });
+        }));
   }
 }
@@ -0,0 +1,74 @@
+package iudx.catalogue.database;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+
+/**
+ * The live base schemas and data models of the catalogue, keyed by their id. The registry is loaded
+ * once when the first database instance starts and is kept up to date by the writes of schema
+ * items, so read-schema is served from memory. The schemas are shared with the callers and must
+ * not be modified.
+ */
+public class SchemaRegistry implements Shareable {
+
+  private static final String SHARED_MAP = "iudx.catalogue.database";
+
+  private final Map<String, JsonObject> schemas = new ConcurrentHashMap<String, JsonObject>();
+  private volatile boolean loaded;
+
+  private SchemaRegistry() {}
+
+  /**
+   * Returns the registry shared by the database instances of a Vert.x instance
+   *
+   * @param vertx Reference to the Vert.x instance
+   * @return The shared registry
+   */
+  public static SchemaRegistry getInstance(Vertx vertx) {
+    synchronized (SchemaRegistry.class) {
+      LocalMap<String, SchemaRegistry> registries = vertx.sharedData().getLocalMap(SHARED_MAP);
+      SchemaRegistry registry = registries.get("schema-registry");
+      if (registry == null) {
+        registry = new SchemaRegistry();
+        registries.put("schema-registry", registry);
+      }
+      return registry;
+    }
+  }
+
+  /**
+   * Returns a schema
+   *
+   * @param id The id of the schema item
+   * @return The schema or null if it is not in the registry
+   */
+  public JsonObject get(String id) {
+    return schemas.get(id);
+  }
+
+  public void put(String id, JsonObject schema) {
+    schemas.put(id, schema);
+  }
+
+  public void remove(String id) {
+    schemas.remove(id);
+  }
+
+  public int size() {
+    return schemas.size();
+  }
+
+  /** @return true once the schemas have been loaded from the database */
+  public boolean isLoaded() {
+    return loaded;
+  }
+
+  void setLoaded() {
+    loaded = true;
+  }
+}
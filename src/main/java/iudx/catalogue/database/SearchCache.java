@@ -0,0 +1,231 @@
+package iudx.catalogue.database;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+
+/**
+ * A bounded LRU cache of the replies to list, search-attribute and count requests. Entries expire
+ * after a TTL and are invalidated by the write paths. Every entry records the item-types and tags
+ * it is restricted to (none meaning any), so a write only drops the entries it can affect.
+ *
+ * <p>A read that started before an invalidation is not stored, since it may have seen the data
+ * before the write.
+ */
+public class SearchCache implements Shareable {
+
+  private static final String SHARED_MAP = "iudx.catalogue.database";
+
+  private final int maxSize;
+  private final long ttl;
+  private final LinkedHashMap<String, Entry> entries;
+  private long generation = 0;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+  private final AtomicLong invalidations = new AtomicLong();
+
+  private static final class Entry {
+    private final Object value;
+    private final String nextCursor;
+    private final Set<String> itemTypes;
+    private final Set<String> tags;
+    private final long expiresAt;
+
+    Entry(Object value, String nextCursor, Set<String> itemTypes, Set<String> tags, long expiresAt) {
+      this.value = value;
+      this.nextCursor = nextCursor;
+      this.itemTypes = itemTypes;
+      this.tags = tags;
+      this.expiresAt = expiresAt;
+    }
+  }
+
+  /** The result of looking up a request. On a miss it is used to store the reply. */
+  public final class Lookup {
+    private final String key;
+    private final long generation;
+    private final Set<String> itemTypes;
+    private final Set<String> tags;
+    private final Entry entry;
+
+    private Lookup(String key, long generation, Set<String> itemTypes, Set<String> tags, Entry e) {
+      this.key = key;
+      this.generation = generation;
+      this.itemTypes = itemTypes;
+      this.tags = tags;
+      this.entry = e;
+    }
+
+    public boolean isHit() {
+      return entry != null;
+    }
+
+    /** @return The cached reply, a JsonArray or a JsonObject */
+    public Object value() {
+      return entry.value;
+    }
+
+    /** @return The next-cursor of a cached page, may be null */
+    public String nextCursor() {
+      return entry.nextCursor;
+    }
+
+    /**
+     * Stores the reply to the request
+     *
+     * @param value The reply, a JsonArray or a JsonObject
+     * @param nextCursor The next-cursor of a page, may be null
+     */
+    public void store(Object value, String nextCursor) {
+      put(this, value, nextCursor);
+    }
+  }
+
+  private SearchCache(int maxSize, long ttl) {
+    this.maxSize = maxSize;
+    this.ttl = ttl;
+    this.entries =
+        new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+          private static final long serialVersionUID = 1L;
+
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            if (size() > SearchCache.this.maxSize) {
+              evictions.incrementAndGet();
+              return true;
+            }
+            return false;
+          }
+        };
+  }
+
+  /**
+   * Returns the cache shared by the database verticles of a Vert.x instance
+   *
+   * @param vertx Reference to the Vert.x instance
+   * @param maxSize The maximum number of entries, 0 disables the cache
+   * @param ttl The time (in ms) after which an entry expires
+   * @return The shared cache
+   */
+  public static SearchCache getInstance(Vertx vertx, int maxSize, long ttl) {
+    synchronized (SearchCache.class) {
+      LocalMap<String, SearchCache> caches = vertx.sharedData().getLocalMap(SHARED_MAP);
+      SearchCache cache = caches.get("search-cache");
+      if (cache == null) {
+        cache = new SearchCache(maxSize, ttl);
+        caches.put("search-cache", cache);
+      }
+      return cache;
+    }
+  }
+
+  public boolean isEnabled() {
+    return maxSize > 0;
+  }
+
+  /**
+   * Looks up the reply to a request. The key is the action and the request with its fields sorted,
+   * so the order of the query parameters does not matter.
+   *
+   * @param action The database action
+   * @param request The request to the database
+   * @param itemTypes The item-types the request is restricted to, null for any
+   * @param tags The tags the request is restricted to, null for any
+   * @return The lookup, a hit or a miss
+   */
+  public Lookup lookup(String action, JsonObject request, Set<String> itemTypes, Set<String> tags) {
+    String key = action + ":" + Json.encode(new TreeMap<String, Object>(request.getMap()));
+    synchronized (this) {
+      Entry entry = entries.get(key);
+      if (entry != null && entry.expiresAt < System.currentTimeMillis()) {
+        entries.remove(key);
+        evictions.incrementAndGet();
+        entry = null;
+      }
+      if (entry == null) {
+        misses.incrementAndGet();
+      } else {
+        hits.incrementAndGet();
+      }
+      return new Lookup(key, generation, itemTypes, tags, entry);
+    }
+  }
+
+  private synchronized void put(Lookup lookup, Object value, String nextCursor) {
+    if (lookup.generation != generation) {
+      return;
+    }
+    entries.put(
+        lookup.key,
+        new Entry(
+            value, nextCursor, lookup.itemTypes, lookup.tags, System.currentTimeMillis() + ttl));
+  }
+
+  /**
+   * Drops the entries that a write to an item can affect
+   *
+   * @param itemType The item-type of the item, null if not known
+   * @param tags The tags of the item before and after the write, null if not known
+   */
+  public synchronized void invalidate(String itemType, JsonArray tags) {
+    generation++;
+    invalidations.incrementAndGet();
+
+    Set<String> written = null;
+    if (tags != null) {
+      written = new HashSet<String>();
+      for (Object tag : tags) {
+        written.add(tag.toString());
+      }
+    }
+
+    Iterator<Entry> it = entries.values().iterator();
+    while (it.hasNext()) {
+      Entry entry = it.next();
+      boolean typeMatches =
+          itemType == null || entry.itemTypes == null || entry.itemTypes.contains(itemType);
+      boolean tagMatches =
+          written == null || entry.tags == null || !disjoint(entry.tags, written);
+      if (typeMatches && tagMatches) {
+        it.remove();
+      }
+    }
+  }
+
+  private static boolean disjoint(Set<String> a, Set<String> b) {
+    for (String s : a) {
+      if (b.contains(s)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** @return The hit, miss, eviction and invalidation counters and the current size */
+  public JsonObject stats() {
+    int size;
+    synchronized (this) {
+      size = entries.size();
+    }
+    return new JsonObject()
+        .put("size", size)
+        .put("maxSize", maxSize)
+        .put("hits", hits.get())
+        .put("misses", misses.get())
+        .put("evictions", evictions.get())
+        .put("invalidations", invalidations.get());
+  }
+}
@@ -0,0 +1,134 @@
+package iudx.catalogue.database;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.mongo.BulkOperation;
+import io.vertx.ext.mongo.BulkWriteOptions;
+import io.vertx.ext.mongo.MongoClient;
+
+/**
+ * Counts the search hits of tags in memory and writes them to the tag collection in batches, so
+ * searches do not write to the tag documents. Hits are added to a striped counter per tag, which
+ * any thread can update without contention, and are flushed as a single bulk write of $inc
+ * updates when enough of them are pending or when the owner flushes them, periodically and on
+ * shutdown.
+ */
+class TagHitCounter {
+
+  private static final Logger logger = Logger.getLogger(TagHitCounter.class.getName());
+
+  private static final class Counter {
+    private final LongAdder hits = new LongAdder();
+    /** The hits written so far, guarded by the TagHitCounter */
+    private long flushed;
+  }
+
+  private final MongoClient mongo;
+  private final String collection;
+  private final long threshold;
+  private final Map<String, Counter> counters = new ConcurrentHashMap<String, Counter>();
+  private final LongAdder pending = new LongAdder();
+  private final AtomicBoolean flushing = new AtomicBoolean();
+
+  /**
+   * @param mongo The client used to write the hits
+   * @param collection The tag collection
+   * @param threshold The number of pending hits which starts a flush
+   */
+  TagHitCounter(MongoClient mongo, String collection, long threshold) {
+    this.mongo = mongo;
+    this.collection = collection;
+    this.threshold = threshold;
+  }
+
+  /**
+   * Counts a hit of each of the tags. Never waits for the database.
+   *
+   * @param tags The tags of a search
+   */
+  void hit(JsonArray tags) {
+    for (Object tag : tags) {
+      counters.computeIfAbsent((String) tag, t -> new Counter()).hits.increment();
+    }
+    pending.add(tags.size());
+    if (pending.sum() >= threshold && flushing.compareAndSet(false, true)) {
+      flush(ar -> flushing.set(false));
+    }
+  }
+
+  /**
+   * Writes the pending hits
+   *
+   * @param handler Called once the hits are written
+   */
+  void flush(Handler<AsyncResult<Void>> handler) {
+    Map<Counter, Long> batch = new HashMap<Counter, Long>();
+    List<BulkOperation> bulk = collect(batch);
+    if (bulk.isEmpty()) {
+      handler.handle(Future.succeededFuture());
+      return;
+    }
+
+    mongo.bulkWriteWithOptions(
+        collection,
+        bulk,
+        new BulkWriteOptions(false),
+        written -> {
+          if (written.succeeded()) {
+            handler.handle(Future.succeededFuture());
+          } else {
+            // The hits are written again by the next flush
+            logger.warning(
+                "Could not write the hits of " + bulk.size() + " tags: " + written.cause());
+            restore(batch);
+            handler.handle(Future.failedFuture(written.cause()));
+          }
+        });
+  }
+
+  /**
+   * Takes the hits counted since the last flush. A tag without new hits is dropped, so tags which
+   * are no longer searched do not stay in memory; a hit racing with the removal of its tag is lost,
+   * which is acceptable for a popularity count.
+   */
+  private synchronized List<BulkOperation> collect(Map<Counter, Long> batch) {
+    pending.reset();
+    List<BulkOperation> bulk = new ArrayList<BulkOperation>();
+    for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+      Counter counter = entry.getValue();
+      long hits = counter.hits.sum();
+      long delta = hits - counter.flushed;
+      if (delta == 0) {
+        counters.remove(entry.getKey(), counter);
+        continue;
+      }
+      counter.flushed = hits;
+      batch.put(counter, delta);
+      bulk.add(
+          BulkOperation.createUpdate(
+              new JsonObject().put("tag", entry.getKey()),
+              new JsonObject().put("$inc", new JsonObject().put("noOfHits", delta)),
+              false,
+              false));
+    }
+    return bulk;
+  }
+
+  private synchronized void restore(Map<Counter, Long> batch) {
+    for (Map.Entry<Counter, Long> entry : batch.entrySet()) {
+      entry.getKey().flushed -= entry.getValue();
+    }
+  }
+}
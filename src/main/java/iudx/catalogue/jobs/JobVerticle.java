@@ -0,0 +1,499 @@
+package iudx.catalogue.jobs;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.mongo.BulkOperation;
+import io.vertx.ext.mongo.FindOptions;
+import io.vertx.ext.mongo.MongoClient;
+import iudx.catalogue.codec.JsonEnvelope;
+import iudx.catalogue.database.DatabaseAction;
+import iudx.catalogue.database.DatabaseReply;
+import iudx.catalogue.database.DatabaseRequest;
+import iudx.catalogue.database.LocalDatabase;
+
+/**
+ * Runs bulk create, update and delete operations in the background. A submitted job is stored in
+ * the jobs collection, and the items of a bulk create in the job_items collection, before its id is
+ * replied, so jobs that are queued or running when the server stops are resumed on the next start.
+ *
+ * <p>Bulk creates are written in batches, and the progress of the job is saved after every batch.
+ * A bulk create ends as completed when no item failed, as failed when every item failed and as
+ * completed-with-errors otherwise. A batch that was written just before a crash may be written
+ * again when the job is resumed. At
+ * most job_concurrency jobs run at the same time, and each job has a single batch in flight, which
+ * bounds the share of the database taken by bulk work.
+ */
+public class JobVerticle extends AbstractVerticle {
+
+  private static final Logger logger = Logger.getLogger(JobVerticle.class.getName());
+
+  private static final String JOBS = "jobs";
+  private static final String JOB_ITEMS = "job_items";
+  private static final String database_name = "catalogue";
+  private static final int MAX_FAILURES = 100;
+  private static final long BATCH_TIMEOUT = 300000;
+
+  private MongoClient mongo;
+  private LocalDatabase localDatabase;
+  private int concurrency;
+  private int batchSize;
+  private final Deque<String> queue = new ArrayDeque<String>();
+  private int running;
+
+  @Override
+  public void start(Future<Void> startFuture) {
+    JsonEnvelope.registerCodec(vertx);
+    concurrency = config().getInteger("job_concurrency", 1);
+    batchSize = config().getInteger("job_batch_size", config().getInteger("bulk_batch_size", 1000));
+    localDatabase = LocalDatabase.getInstance(vertx);
+
+    String database_uri =
+        "mongodb://"
+            + config().getString("mongo_host", "localhost")
+            + ":"
+            + config().getInteger("mongo_port", 27017).toString();
+    mongo =
+        MongoClient.createShared(
+            vertx,
+            new JsonObject()
+                .put("connection_string", database_uri)
+                .put("db_name", database_name)
+                .put("maxPoolSize", config().getInteger("mongo_pool_size", 100)));
+
+    vertx
+        .eventBus()
+        .consumer(
+            "jobs",
+            message -> {
+              validateRequest(JsonEnvelope.receive(message));
+            });
+
+    // Resume the jobs that were interrupted by a restart, oldest first
+    JsonObject unfinished =
+        new JsonObject()
+            .put("status", new JsonObject().put("$in", new JsonArray().add("queued").add("running")));
+    FindOptions options =
+        new FindOptions()
+            .setFields(new JsonObject().put("_id", 1))
+            .setSort(new JsonObject().put("submitted", 1));
+    mongo.createIndex(
+        JOB_ITEMS, new JsonObject().put("job-id", 1).put("seq", 1), indexed -> {});
+    mongo.findWithOptions(
+        JOBS,
+        unfinished,
+        options,
+        jobs -> {
+          if (jobs.succeeded()) {
+            for (JsonObject job : jobs.result()) {
+              queue.add(job.getString("_id"));
+            }
+            logger.info("Job Verticle started, resuming " + queue.size() + " jobs");
+            schedule();
+            startFuture.complete();
+          } else {
+            startFuture.fail(jobs.cause());
+          }
+        });
+  }
+
+  private void validateRequest(Message<Object> message) {
+    String action = message.headers().get("action");
+
+    switch (action) {
+      case "submit-job":
+        {
+          submit(message);
+          break;
+        }
+      case "get-job":
+        {
+          getJob(message);
+          break;
+        }
+      default:
+        {
+          message.fail(0, "Unknown action: " + action);
+          break;
+        }
+    }
+  }
+
+  /**
+   * Stores a job and queues it. The request holds the database action, bulkcreate, bulkupdate or
+   * bulkdelete, and the request of that action.
+   *
+   * @param message The request. The id of the job is replied to it.
+   */
+  private void submit(Message<Object> message) {
+    JsonObject request_body = (JsonObject) message.body();
+    DatabaseAction action = DatabaseAction.fromName(request_body.getString("action"));
+    if (action != DatabaseAction.BULK_CREATE
+        && action != DatabaseAction.BULK_UPDATE
+        && action != DatabaseAction.BULK_DELETE) {
+      message.fail(0, "Not a bulk action");
+      return;
+    }
+
+    String jobId = UUID.randomUUID().toString();
+    JsonObject request = request_body.getJsonObject("request");
+    JsonArray items = (JsonArray) request.remove("items");
+    boolean validate = Boolean.TRUE.equals(request.remove("validate"));
+    int total = (items == null) ? 1 : items.size();
+
+    // Items and requests are stored encoded, as they may contain keys starting with $
+    JsonObject job =
+        new JsonObject()
+            .put("_id", jobId)
+            .put("action", action.getName())
+            .put("bulk-id", request.getString("bulk-id"))
+            .put("request", request.encode())
+            .put("validate", validate)
+            .put("status", "queued")
+            .put("submitted", System.currentTimeMillis())
+            .put("total", total)
+            .put("processed", 0)
+            .put("failed", 0)
+            .put("failures", new JsonArray())
+            .put("next-seq", 0);
+
+    Future<Void> stored = Future.future();
+    if (items == null) {
+      stored.complete();
+    } else {
+      storeItems(jobId, items, 0, stored);
+    }
+    stored.compose(
+            v -> {
+              Future<String> inserted = Future.future();
+              mongo.insert(JOBS, job, inserted.completer());
+              return inserted;
+            })
+        .setHandler(
+            ar -> {
+              if (ar.succeeded()) {
+                message.reply(new JsonObject().put("job-id", jobId).put("status", "queued"));
+                queue.add(jobId);
+                schedule();
+              } else {
+                logger.info("Could not store job " + jobId + ": " + ar.cause());
+                mongo.removeDocuments(
+                    JOB_ITEMS, new JsonObject().put("job-id", jobId), removed -> {});
+                message.fail(0, "Failure");
+              }
+            });
+  }
+
+  private void storeItems(String jobId, JsonArray items, int from, Future<Void> stored) {
+    if (from >= items.size()) {
+      stored.complete();
+      return;
+    }
+    int to = Math.min(from + batchSize, items.size());
+    List<BulkOperation> inserts = new ArrayList<BulkOperation>(to - from);
+    for (int seq = from; seq < to; seq++) {
+      inserts.add(
+          BulkOperation.createInsert(
+              new JsonObject()
+                  .put("job-id", jobId)
+                  .put("seq", seq)
+                  .put("item", items.getJsonObject(seq).encode())));
+    }
+    mongo.bulkWrite(
+        JOB_ITEMS,
+        inserts,
+        written -> {
+          if (written.succeeded()) {
+            storeItems(jobId, items, to, stored);
+          } else {
+            stored.fail(written.cause());
+          }
+        });
+  }
+
+  /**
+   * Replies with the state of a job: its status, the number of items processed and failed, the
+   * throughput in items per second and the failures
+   *
+   * @param message The request with the job-id
+   */
+  private void getJob(Message<Object> message) {
+    String jobId = ((JsonObject) message.body()).getString("job-id");
+    mongo.findOne(
+        JOBS,
+        new JsonObject().put("_id", jobId),
+        new JsonObject().put("request", 0).put("next-seq", 0),
+        res -> {
+          if (res.failed()) {
+            message.fail(0, "Failure");
+          } else if (res.result() == null) {
+            message.fail(404, "No such job");
+          } else {
+            JsonObject job = res.result();
+            job.put("job-id", job.remove("_id"));
+            Long started = job.getLong("started");
+            if (started != null) {
+              long end = job.getLong("finished", System.currentTimeMillis());
+              double seconds = Math.max(end - started, 1) / 1000.0;
+              job.put("throughput", job.getLong("processed") / seconds);
+            }
+            message.reply(job);
+          }
+        });
+  }
+
+  private void schedule() {
+    while (running < concurrency && !queue.isEmpty()) {
+      running++;
+      run(queue.poll());
+    }
+  }
+
+  private void run(String jobId) {
+    JsonObject query = new JsonObject().put("_id", jobId);
+    mongo.findOne(
+        JOBS,
+        query,
+        null,
+        res -> {
+          if (res.failed() || res.result() == null) {
+            logger.info("Could not read job " + jobId);
+            done();
+            return;
+          }
+
+          JsonObject job = res.result();
+          JsonObject set = new JsonObject().put("status", "running");
+          if (!job.containsKey("started")) {
+            set.put("started", System.currentTimeMillis());
+          }
+          mongo.updateCollection(
+              JOBS,
+              query,
+              new JsonObject().put("$set", set),
+              updated -> {
+                if (updated.failed()) {
+                  finish(jobId, "failed");
+                } else if (DatabaseAction.BULK_CREATE.getName().equals(job.getString("action"))) {
+                  nextBatch(job);
+                } else {
+                  runOnce(job);
+                }
+              });
+        });
+  }
+
+  /** Runs a bulk update or delete, which the database performs as a single operation */
+  private void runOnce(JsonObject job) {
+    String jobId = job.getString("_id");
+    DatabaseAction action = DatabaseAction.fromName(job.getString("action"));
+    JsonObject request = new JsonObject(job.getString("request"));
+
+    database(
+        new DatabaseRequest(action, request),
+        reply -> {
+          JsonObject update = progress(1, reply, 0, 0);
+          mongo.updateCollection(
+              JOBS,
+              new JsonObject().put("_id", jobId),
+              update,
+              saved ->
+                  finish(jobId, reply.succeeded() && saved.succeeded() ? "completed" : "failed"));
+        });
+  }
+
+  /** Writes the next batch of a bulk create and saves the progress of the job */
+  private void nextBatch(JsonObject job) {
+    String jobId = job.getString("_id");
+    long nextSeq = job.getLong("next-seq");
+    JsonObject query =
+        new JsonObject()
+            .put("job-id", jobId)
+            .put("seq", new JsonObject().put("$gte", nextSeq));
+    FindOptions options =
+        new FindOptions().setSort(new JsonObject().put("seq", 1)).setLimit(batchSize);
+
+    mongo.findWithOptions(
+        JOB_ITEMS,
+        query,
+        options,
+        res -> {
+          if (res.failed()) {
+            finish(jobId, "failed");
+            return;
+          }
+          if (res.result().isEmpty()) {
+            finish(jobId, batchStatus(job));
+            return;
+          }
+
+          JsonArray items = new JsonArray();
+          for (JsonObject doc : res.result()) {
+            items.add(new JsonObject(doc.getString("item")));
+          }
+          long from = res.result().get(0).getLong("seq");
+          long to = res.result().get(res.result().size() - 1).getLong("seq");
+
+          JsonObject request = new JsonObject(job.getString("request")).put("items", items);
+          database(
+              new DatabaseRequest(DatabaseAction.BULK_CREATE, request)
+                  .putHeader("validate", job.getBoolean("validate", false).toString()),
+              reply -> {
+                JsonObject update = progress(items.size(), reply, from, to);
+                update.put("$set", new JsonObject().put("next-seq", to + 1));
+                mongo.updateCollection(
+                    JOBS,
+                    new JsonObject().put("_id", jobId),
+                    update,
+                    saved -> {
+                      if (saved.failed()) {
+                        finish(jobId, "failed");
+                        return;
+                      }
+                      JsonObject written =
+                          new JsonObject()
+                              .put("job-id", jobId)
+                              .put("seq", new JsonObject().put("$lte", to));
+                      mongo.removeDocuments(
+                          JOB_ITEMS,
+                          written,
+                          removed -> {
+                            // The counts saved in the job, which its final status depends on
+                            JsonObject inc = update.getJsonObject("$inc");
+                            long processed = job.getLong("processed") + inc.getLong("processed");
+                            long failed = job.getLong("failed") + inc.getLong("failed", 0L);
+                            job.put("next-seq", to + 1);
+                            job.put("processed", processed);
+                            job.put("failed", failed);
+                            nextBatch(job);
+                          });
+                    });
+              });
+        });
+  }
+
+  /**
+   * Returns the final status of a bulk create, from the items processed and failed
+   *
+   * @param job The job, with the counts saved after its last batch
+   * @return completed, failed or completed-with-errors
+   */
+  private static String batchStatus(JsonObject job) {
+    long failed = job.getLong("failed");
+    if (failed == 0) {
+      return "completed";
+    }
+    return failed >= job.getLong("processed") ? "failed" : "completed-with-errors";
+  }
+
+  /**
+   * Returns the update of a job after a batch. A failed batch counts all of its items as failed,
+   * and the items reported invalid by the validation of a batch are failures of their own.
+   *
+   * @param count The number of items in the batch
+   * @param reply The reply of the database to the batch
+   * @param from The first item of the batch
+   * @param to The last item of the batch
+   * @return The update
+   */
+  private JsonObject progress(int count, AsyncResult<DatabaseReply> reply, long from, long to) {
+    JsonObject inc = new JsonObject().put("processed", count);
+    JsonObject update = new JsonObject();
+    JsonArray failures = new JsonArray();
+
+    if (reply.failed()) {
+      inc.put("failed", count);
+      failures.add(
+          new JsonObject()
+              .put("from", from)
+              .put("to", to)
+              .put("error", reply.cause().getMessage()));
+    } else if (reply.result().getBody() instanceof JsonObject) {
+      JsonObject result = (JsonObject) reply.result().getBody();
+      JsonArray results = result.getJsonArray("results");
+      if (results != null) {
+        inc.put("failed", result.getInteger("invalid", 0));
+        for (Object r : results) {
+          JsonObject itemResult = (JsonObject) r;
+          if (!"valid".equals(itemResult.getString("status"))) {
+            failures.add(
+                new JsonObject()
+                    .put("index", from + itemResult.getInteger("index"))
+                    .put("error", itemResult.getString("error")));
+          }
+        }
+      }
+    }
+
+    if (!failures.isEmpty()) {
+      // Only the latest failures are kept
+      update.put(
+          "$push",
+          new JsonObject()
+              .put(
+                  "failures",
+                  new JsonObject().put("$each", failures).put("$slice", -MAX_FAILURES)));
+    }
+    return update.put("$inc", inc);
+  }
+
+  private void finish(String jobId, String status) {
+    JsonObject update =
+        new JsonObject()
+            .put(
+                "$set",
+                new JsonObject().put("status", status).put("finished", System.currentTimeMillis()));
+    mongo.updateCollection(
+        JOBS,
+        new JsonObject().put("_id", jobId),
+        update,
+        saved -> {
+          logger.info("Job " + jobId + " " + status);
+          mongo.removeDocuments(JOB_ITEMS, new JsonObject().put("job-id", jobId), removed -> {});
+          done();
+        });
+  }
+
+  private void done() {
+    running--;
+    schedule();
+  }
+
+  /**
+   * Executes a database request, directly when a database is deployed in this Vert.x instance and
+   * on the event bus otherwise
+   */
+  private void database(DatabaseRequest request, Handler<AsyncResult<DatabaseReply>> replyHandler) {
+    if (localDatabase.isAvailable()) {
+      localDatabase.execute(request).setHandler(replyHandler);
+      return;
+    }
+
+    vertx
+        .eventBus()
+        .send(
+            "database",
+            JsonEnvelope.wrap(request.getBody()),
+            request.toDeliveryOptions().setSendTimeout(BATCH_TIMEOUT),
+            (AsyncResult<Message<Object>> database_reply) -> {
+              if (database_reply.succeeded()) {
+                replyHandler.handle(
+                    Future.succeededFuture(
+                        DatabaseReply.of(JsonEnvelope.receive(database_reply.result()))));
+              } else {
+                replyHandler.handle(Future.failedFuture(database_reply.cause()));
+              }
+            });
+  }
+}
@@ -0,0 +1,87 @@
+package iudx.catalogue.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free latency histogram with log-linear buckets in the manner of HdrHistogram. Every power
+ * of two is split into 16 sub-buckets, so a percentile is reported with a microsecond resolution
+ * and a relative error of at most 1/16, whatever the duration.
+ */
+public class Histogram {
+
+  private static final int SUB_BUCKETS = 16;
+  private static final int SUB_BUCKET_BITS = 4;
+  private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder sumMicros = new LongAdder();
+
+  /**
+   * Records a duration
+   *
+   * @param nanos The duration in nanoseconds
+   */
+  public void record(long nanos) {
+    long micros = Math.max(nanos / 1000, 0);
+    counts.incrementAndGet(index(micros));
+    count.increment();
+    sumMicros.add(micros);
+  }
+
+  public long getCount() {
+    return count.sum();
+  }
+
+  /** @return The sum of the recorded durations in seconds */
+  public double getSum() {
+    return sumMicros.sum() / 1e6;
+  }
+
+  /**
+   * Returns the duration below which the given fraction of the recorded durations fall
+   *
+   * @param quantile The quantile, between 0 and 1
+   * @return The duration in seconds, 0 if nothing has been recorded
+   */
+  public double getQuantile(double quantile) {
+    long total = 0;
+    long[] snapshot = new long[BUCKETS];
+    for (int i = 0; i < BUCKETS; i++) {
+      snapshot[i] = counts.get(i);
+      total += snapshot[i];
+    }
+    if (total == 0) {
+      return 0;
+    }
+
+    long rank = (long) Math.ceil(quantile * total);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += snapshot[i];
+      if (seen >= rank && snapshot[i] > 0) {
+        return upperBound(i) / 1e6;
+      }
+    }
+    return upperBound(BUCKETS - 1) / 1e6;
+  }
+
+  static int index(long micros) {
+    if (micros < SUB_BUCKETS) {
+      return (int) micros;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(micros);
+    int sub = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+  }
+
+  static long upperBound(int index) {
+    if (index < SUB_BUCKETS) {
+      return index + 1;
+    }
+    int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+    long sub = index % SUB_BUCKETS;
+    return (SUB_BUCKETS + sub + 1) << (exponent - SUB_BUCKET_BITS);
+  }
+}
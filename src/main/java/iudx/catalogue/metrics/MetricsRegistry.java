@@ -0,0 +1,193 @@
+package iudx.catalogue.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+
+/**
+ * The timers and gauges of a Vert.x instance, rendered in the Prometheus text format by the
+ * /metrics route. Timers are latency histograms identified by a metric name and a set of labels,
+ * and are reported as summaries with the 0.5, 0.9, 0.99 and 0.999 quantiles.
+ */
+public class MetricsRegistry implements Shareable {
+
+  private static final String SHARED_MAP = "iudx.catalogue.metrics";
+  private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+  private final Map<String, String> help = new ConcurrentHashMap<String, String>();
+  private final Map<String, Map<String, Histogram>> timers =
+      new ConcurrentHashMap<String, Map<String, Histogram>>();
+  private final Map<String, Map<String, Supplier<Number>>> gauges =
+      new ConcurrentHashMap<String, Map<String, Supplier<Number>>>();
+
+  /**
+   * Returns the registry shared by the verticles of a Vert.x instance
+   *
+   * @param vertx Reference to the Vert.x instance
+   * @return The shared registry
+   */
+  public static MetricsRegistry getInstance(Vertx vertx) {
+    synchronized (MetricsRegistry.class) {
+      LocalMap<String, MetricsRegistry> registries = vertx.sharedData().getLocalMap(SHARED_MAP);
+      MetricsRegistry registry = registries.get("registry");
+      if (registry == null) {
+        registry = new MetricsRegistry();
+        registries.put("registry", registry);
+      }
+      return registry;
+    }
+  }
+
+  /**
+   * Returns the timer with the given name and labels, creating it on first use
+   *
+   * @param name The metric name
+   * @param description The help text of the metric
+   * @param labels Label names and values, alternating
+   * @return The timer
+   */
+  public Histogram timer(String name, String description, String... labels) {
+    help.putIfAbsent(name, description);
+    return timers
+        .computeIfAbsent(name, n -> new ConcurrentHashMap<String, Histogram>())
+        .computeIfAbsent(labels(labels), l -> new Histogram());
+  }
+
+  /**
+   * Registers a gauge. A gauge that is already registered is kept.
+   *
+   * @param name The metric name
+   * @param description The help text of the metric
+   * @param value Supplies the current value
+   * @param labels Label names and values, alternating
+   */
+  public void gauge(String name, String description, Supplier<Number> value, String... labels) {
+    help.putIfAbsent(name, description);
+    gauges
+        .computeIfAbsent(name, n -> new ConcurrentHashMap<String, Supplier<Number>>())
+        .putIfAbsent(labels(labels), value);
+  }
+
+  /**
+   * Returns a counter registered as a gauge, creating it on first use. Used for values that go up
+   * and down, such as the number of pending requests.
+   *
+   * @param name The metric name
+   * @param description The help text of the metric
+   * @param labels Label names and values, alternating
+   * @return The counter
+   */
+  public AtomicLong level(String name, String description, String... labels) {
+    help.putIfAbsent(name, description);
+    Map<String, Supplier<Number>> series =
+        gauges.computeIfAbsent(name, n -> new ConcurrentHashMap<String, Supplier<Number>>());
+    return ((Level) series.computeIfAbsent(labels(labels), l -> new Level())).counter;
+  }
+
+  private static final class Level implements Supplier<Number> {
+    private final AtomicLong counter = new AtomicLong();
+
+    @Override
+    public Number get() {
+      return counter.get();
+    }
+  }
+
+  /**
+   * Wraps a reply handler so that the time until the reply is recorded by a timer
+   *
+   * @param timer The timer
+   * @param handler The handler to call with the reply
+   * @return The wrapped handler
+   */
+  public static <T> Handler<AsyncResult<T>> timed(Histogram timer, Handler<AsyncResult<T>> handler) {
+    long start = System.nanoTime();
+    return ar -> {
+      timer.record(System.nanoTime() - start);
+      handler.handle(ar);
+    };
+  }
+
+  /**
+   * Wraps a message so that the time until it is replied to or failed is recorded by a timer
+   *
+   * @param timer The timer
+   * @param message The message
+   * @return The wrapped message
+   */
+  public static <T> Message<T> timed(Histogram timer, Message<T> message) {
+    return new TimedMessage<T>(message, timer);
+  }
+
+  /** @return The metrics in the Prometheus text exposition format */
+  public String render() {
+    StringBuilder out = new StringBuilder();
+
+    for (Map.Entry<String, Map<String, Histogram>> metric : new TreeMap<>(timers).entrySet()) {
+      String name = metric.getKey();
+      header(out, name, "summary");
+      for (Map.Entry<String, Histogram> series : new TreeMap<>(metric.getValue()).entrySet()) {
+        String labels = series.getKey();
+        Histogram histogram = series.getValue();
+        for (double quantile : QUANTILES) {
+          String quantileLabel = "quantile=\"" + quantile + "\"";
+          out.append(name)
+              .append('{')
+              .append(labels.isEmpty() ? quantileLabel : labels + "," + quantileLabel)
+              .append("} ")
+              .append(histogram.getQuantile(quantile))
+              .append('\n');
+        }
+        sample(out, name + "_sum", labels, histogram.getSum());
+        sample(out, name + "_count", labels, histogram.getCount());
+      }
+    }
+
+    for (Map.Entry<String, Map<String, Supplier<Number>>> metric :
+        new TreeMap<>(gauges).entrySet()) {
+      String name = metric.getKey();
+      header(out, name, "gauge");
+      for (Map.Entry<String, Supplier<Number>> series :
+          new TreeMap<>(metric.getValue()).entrySet()) {
+        sample(out, name, series.getKey(), series.getValue().get());
+      }
+    }
+    return out.toString();
+  }
+
+  private void header(StringBuilder out, String name, String type) {
+    out.append("# HELP ").append(name).append(' ').append(help.get(name)).append('\n');
+    out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+  }
+
+  private static void sample(StringBuilder out, String name, String labels, Object value) {
+    out.append(name);
+    if (!labels.isEmpty()) {
+      out.append('{').append(labels).append('}');
+    }
+    out.append(' ').append(value).append('\n');
+  }
+
+  private static String labels(String... labels) {
+    StringBuilder out = new StringBuilder();
+    for (int i = 0; i + 1 < labels.length; i += 2) {
+      if (out.length() > 0) {
+        out.append(',');
+      }
+      out.append(labels[i])
+          .append("=\"")
+          .append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\""))
+          .append('"');
+    }
+    return out.toString();
+  }
+}
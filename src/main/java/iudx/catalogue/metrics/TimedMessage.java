@@ -0,0 +1,84 @@
+package iudx.catalogue.metrics;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.MultiMap;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.Message;
+
+/** A message which records the time until it is replied to or failed */
+class TimedMessage<T> implements Message<T> {
+
+  private final Message<T> message;
+  private final Histogram timer;
+  private final long start = System.nanoTime();
+  private final AtomicBoolean done = new AtomicBoolean();
+
+  TimedMessage(Message<T> message, Histogram timer) {
+    this.message = message;
+    this.timer = timer;
+  }
+
+  private void stop() {
+    if (done.compareAndSet(false, true)) {
+      timer.record(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public String address() {
+    return message.address();
+  }
+
+  @Override
+  public MultiMap headers() {
+    return message.headers();
+  }
+
+  @Override
+  public T body() {
+    return message.body();
+  }
+
+  @Override
+  public String replyAddress() {
+    return message.replyAddress();
+  }
+
+  public boolean isSend() {
+    return message.isSend();
+  }
+
+  @Override
+  public void reply(Object reply) {
+    stop();
+    message.reply(reply);
+  }
+
+  @Override
+  public <R> void reply(Object reply, Handler<AsyncResult<Message<R>>> replyHandler) {
+    stop();
+    message.reply(reply, replyHandler);
+  }
+
+  @Override
+  public void reply(Object reply, DeliveryOptions options) {
+    stop();
+    message.reply(reply, options);
+  }
+
+  @Override
+  public <R> void reply(
+      Object reply, DeliveryOptions options, Handler<AsyncResult<Message<R>>> replyHandler) {
+    stop();
+    message.reply(reply, options, replyHandler);
+  }
+
+  @Override
+  public void fail(int failureCode, String failure) {
+    stop();
+    message.fail(failureCode, failure);
+  }
+}
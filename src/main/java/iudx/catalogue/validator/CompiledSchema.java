@@ -0,0 +1,15 @@
+package iudx.catalogue.validator;
+
+import io.vertx.core.json.JsonObject;
+
+/** A schema prepared once by a ValidatorInterface, against which any number of items are validated */
+public interface CompiledSchema {
+
+  /**
+   * Validate item against the schema. Throws an Exception when item is invalid
+   *
+   * @param item - the item which will be validated
+   * @throws Exception - when validation fails
+   */
+  public void validate(JsonObject item) throws Exception;
+}
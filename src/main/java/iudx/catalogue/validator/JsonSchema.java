@@ -0,0 +1,629 @@
+package iudx.catalogue.validator;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * A JSON schema compiled into a tree of checks that run directly over the maps and lists behind
+ * JsonObject and JsonArray, so an item is validated without being copied into another object
+ * model. Error messages are only built for invalid values.
+ *
+ * <p>The keywords of drafts 4 to 7 that catalogue schemas use are supported, with local $ref
+ * pointers. A schema that uses any other validation keyword, such as format or a remote $ref, is not
+ * compiled and is left to everit. Unknown keywords are ignored, as everit does.
+ */
+public final class JsonSchema implements CompiledSchema {
+
+  /** Validation keywords that are not implemented here */
+  private static final Set<String> UNSUPPORTED =
+      new HashSet<String>(
+          Arrays.asList(
+              "format",
+              "dependencies",
+              "propertyNames",
+              "contains",
+              "if",
+              "then",
+              "else",
+              "additionalItems",
+              "contentMediaType",
+              "contentEncoding"));
+
+  private static final Set<String> TYPES =
+      new HashSet<String>(
+          Arrays.asList("object", "array", "string", "number", "integer", "boolean", "null"));
+
+  /** Thrown while compiling a schema which has to be left to everit */
+  private static final class Unsupported extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private Unsupported(String message) {
+      super(message, null, false, false);
+    }
+  }
+
+  /** A check of a value. Returns null when the value is valid and the reason otherwise. */
+  private interface Node {
+    String check(Object value);
+  }
+
+  private static final Node ANY = value -> null;
+  private static final Node NONE = value -> ": no value is allowed";
+
+  private final Node root;
+
+  private JsonSchema(Node root) {
+    this.root = root;
+  }
+
+  /**
+   * Compiles a schema
+   *
+   * @param schema The schema
+   * @return The compiled schema or null if the schema uses keywords that are not supported
+   * @throws IllegalArgumentException if the schema is malformed
+   */
+  public static CompiledSchema compile(JsonObject schema) {
+    try {
+      return new JsonSchema(new Compiler(schema.getMap()).node(schema.getMap()));
+    } catch (Unsupported e) {
+      return null;
+    } catch (ClassCastException | NullPointerException e) {
+      throw new IllegalArgumentException("Malformed schema", e);
+    }
+  }
+
+  @Override
+  public void validate(JsonObject item) throws Exception {
+    String error = root.check(item.getMap());
+    if (error != null) {
+      throw new Exception("#" + error);
+    }
+  }
+
+  /** Unwraps JsonObject and JsonArray into the map or list they hold */
+  private static Object raw(Object value) {
+    if (value instanceof JsonObject) {
+      return ((JsonObject) value).getMap();
+    }
+    if (value instanceof JsonArray) {
+      return ((JsonArray) value).getList();
+    }
+    return value;
+  }
+
+  private static final class Compiler {
+    private final Map<String, Object> root;
+    private final Map<String, Node[]> refs = new HashMap<String, Node[]>();
+
+    private Compiler(Map<String, Object> root) {
+      this.root = root;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Node node(Object schema) {
+      schema = raw(schema);
+      if (Boolean.TRUE.equals(schema)) {
+        return ANY;
+      }
+      if (Boolean.FALSE.equals(schema)) {
+        return NONE;
+      }
+
+      Map<String, Object> s = (Map<String, Object>) schema;
+      if (s.containsKey("$ref")) {
+        // Keywords next to $ref are ignored up to draft 7
+        return ref((String) s.get("$ref"));
+      }
+
+      List<Node> checks = new ArrayList<Node>();
+      for (Map.Entry<String, Object> keyword : s.entrySet()) {
+        if (UNSUPPORTED.contains(keyword.getKey())) {
+          throw new Unsupported(keyword.getKey());
+        }
+        Node check = keyword(keyword.getKey(), raw(keyword.getValue()), s);
+        if (check != null) {
+          checks.add(check);
+        }
+      }
+
+      if (checks.isEmpty()) {
+        return ANY;
+      }
+      if (checks.size() == 1) {
+        return checks.get(0);
+      }
+      Node[] all = checks.toArray(new Node[0]);
+      return value -> {
+        for (Node check : all) {
+          String error = check.check(value);
+          if (error != null) {
+            return error;
+          }
+        }
+        return null;
+      };
+    }
+
+    @SuppressWarnings("unchecked")
+    private Node keyword(String name, Object v, Map<String, Object> s) {
+      switch (name) {
+        case "type":
+          return type(v instanceof List ? (List<String>) v : Arrays.asList((String) v));
+        case "enum":
+          {
+            List<Object> allowed = (List<Object>) v;
+            return value -> {
+              for (Object a : allowed) {
+                if (same(a, value)) {
+                  return null;
+                }
+              }
+              return ": not one of the allowed values";
+            };
+          }
+        case "const":
+          return value -> same(v, value) ? null : ": not the allowed value";
+        case "properties":
+          return properties((Map<String, Object>) v);
+        case "required":
+          {
+            String[] required = ((List<String>) v).toArray(new String[0]);
+            return value -> {
+              if (value instanceof Map) {
+                for (String property : required) {
+                  if (!((Map<String, Object>) value).containsKey(property)) {
+                    return ": required property " + property + " is missing";
+                  }
+                }
+              }
+              return null;
+            };
+          }
+        case "patternProperties":
+          return patternProperties((Map<String, Object>) v);
+        case "additionalProperties":
+          return additionalProperties(v, s);
+        case "minProperties":
+          {
+            int min = ((Number) v).intValue();
+            return value ->
+                (value instanceof Map && ((Map<?, ?>) value).size() < min)
+                    ? ": fewer than " + min + " properties"
+                    : null;
+          }
+        case "maxProperties":
+          {
+            int max = ((Number) v).intValue();
+            return value ->
+                (value instanceof Map && ((Map<?, ?>) value).size() > max)
+                    ? ": more than " + max + " properties"
+                    : null;
+          }
+        case "items":
+          return items(v);
+        case "minItems":
+          {
+            int min = ((Number) v).intValue();
+            return value ->
+                (value instanceof List && ((List<?>) value).size() < min)
+                    ? ": fewer than " + min + " items"
+                    : null;
+          }
+        case "maxItems":
+          {
+            int max = ((Number) v).intValue();
+            return value ->
+                (value instanceof List && ((List<?>) value).size() > max)
+                    ? ": more than " + max + " items"
+                    : null;
+          }
+        case "uniqueItems":
+          return Boolean.TRUE.equals(v) ? JsonSchema::uniqueItems : null;
+        case "minimum":
+          return bound(
+              ((Number) v).doubleValue(), Boolean.TRUE.equals(s.get("exclusiveMinimum")), true);
+        case "maximum":
+          return bound(
+              ((Number) v).doubleValue(), Boolean.TRUE.equals(s.get("exclusiveMaximum")), false);
+        case "exclusiveMinimum":
+          // A boolean modifies minimum in draft 4, a number is a bound of its own since draft 6
+          return (v instanceof Number) ? bound(((Number) v).doubleValue(), true, true) : null;
+        case "exclusiveMaximum":
+          return (v instanceof Number) ? bound(((Number) v).doubleValue(), true, false) : null;
+        case "multipleOf":
+          {
+            BigDecimal divisor = new BigDecimal(v.toString());
+            return value ->
+                (value instanceof Number
+                        && new BigDecimal(value.toString()).remainder(divisor).signum() != 0)
+                    ? ": not a multiple of " + v
+                    : null;
+          }
+        case "minLength":
+          {
+            int min = ((Number) v).intValue();
+            return value ->
+                (value instanceof String
+                        && ((String) value).codePointCount(0, ((String) value).length()) < min)
+                    ? ": shorter than " + min + " characters"
+                    : null;
+          }
+        case "maxLength":
+          {
+            int max = ((Number) v).intValue();
+            return value ->
+                (value instanceof String
+                        && ((String) value).codePointCount(0, ((String) value).length()) > max)
+                    ? ": longer than " + max + " characters"
+                    : null;
+          }
+        case "pattern":
+          {
+            Pattern pattern = Pattern.compile((String) v);
+            return value ->
+                (value instanceof String && !pattern.matcher((String) value).find())
+                    ? ": does not match " + v
+                    : null;
+          }
+        case "allOf":
+          {
+            Node[] all = nodes((List<Object>) v);
+            return value -> {
+              for (Node check : all) {
+                String error = check.check(value);
+                if (error != null) {
+                  return error;
+                }
+              }
+              return null;
+            };
+          }
+        case "anyOf":
+          {
+            Node[] any = nodes((List<Object>) v);
+            return value -> {
+              for (Node check : any) {
+                if (check.check(value) == null) {
+                  return null;
+                }
+              }
+              return ": does not match any of the schemas in anyOf";
+            };
+          }
+        case "oneOf":
+          {
+            Node[] one = nodes((List<Object>) v);
+            return value -> {
+              int matched = 0;
+              for (Node check : one) {
+                if (check.check(value) == null) {
+                  matched++;
+                }
+              }
+              return (matched == 1) ? null : ": matches " + matched + " of the schemas in oneOf";
+            };
+          }
+        case "not":
+          {
+            Node not = node(v);
+            return value -> (not.check(value) == null) ? ": matches the schema in not" : null;
+          }
+        case "$id":
+          // An $id below the root changes the base of the $ref pointers in its subschema
+          if (s != root) {
+            throw new Unsupported("$id " + v);
+          }
+          return null;
+        default:
+          // Annotations, definitions and unknown keywords
+          return null;
+      }
+    }
+
+    private Node[] nodes(List<Object> schemas) {
+      Node[] nodes = new Node[schemas.size()];
+      for (int i = 0; i < nodes.length; i++) {
+        nodes[i] = node(schemas.get(i));
+      }
+      return nodes;
+    }
+
+    private Node type(List<String> types) {
+      for (String t : types) {
+        if (!TYPES.contains(t)) {
+          throw new IllegalArgumentException("Unknown type " + t);
+        }
+      }
+      String[] allowed = types.toArray(new String[0]);
+      return value -> {
+        for (String t : allowed) {
+          if (isType(value, t)) {
+            return null;
+          }
+        }
+        return ": expected " + String.join(" or ", allowed);
+      };
+    }
+
+    @SuppressWarnings("unchecked")
+    private Node properties(Map<String, Object> properties) {
+      Map<String, Node> nodes = new LinkedHashMap<String, Node>();
+      for (Map.Entry<String, Object> property : properties.entrySet()) {
+        nodes.put(property.getKey(), node(property.getValue()));
+      }
+      return value -> {
+        if (!(value instanceof Map)) {
+          return null;
+        }
+        Map<String, Object> object = (Map<String, Object>) value;
+        for (Map.Entry<String, Node> property : nodes.entrySet()) {
+          String name = property.getKey();
+          if (object.containsKey(name)) {
+            String error = property.getValue().check(raw(object.get(name)));
+            if (error != null) {
+              return "/" + name + error;
+            }
+          }
+        }
+        return null;
+      };
+    }
+
+    @SuppressWarnings("unchecked")
+    private Node patternProperties(Map<String, Object> patterns) {
+      Map<Pattern, Node> nodes = new LinkedHashMap<Pattern, Node>();
+      for (Map.Entry<String, Object> pattern : patterns.entrySet()) {
+        nodes.put(Pattern.compile(pattern.getKey()), node(pattern.getValue()));
+      }
+      return value -> {
+        if (!(value instanceof Map)) {
+          return null;
+        }
+        for (Map.Entry<String, Object> property : ((Map<String, Object>) value).entrySet()) {
+          for (Map.Entry<Pattern, Node> pattern : nodes.entrySet()) {
+            if (pattern.getKey().matcher(property.getKey()).find()) {
+              String error = pattern.getValue().check(raw(property.getValue()));
+              if (error != null) {
+                return "/" + property.getKey() + error;
+              }
+            }
+          }
+        }
+        return null;
+      };
+    }
+
+    @SuppressWarnings("unchecked")
+    private Node additionalProperties(Object v, Map<String, Object> s) {
+      Node additional = node(v);
+      Set<String> declared =
+          s.containsKey("properties")
+              ? new HashSet<String>(((Map<String, Object>) raw(s.get("properties"))).keySet())
+              : new HashSet<String>();
+      List<Pattern> patterns = new ArrayList<Pattern>();
+      if (s.containsKey("patternProperties")) {
+        for (String pattern : ((Map<String, Object>) raw(s.get("patternProperties"))).keySet()) {
+          patterns.add(Pattern.compile(pattern));
+        }
+      }
+
+      return value -> {
+        if (!(value instanceof Map)) {
+          return null;
+        }
+        for (Map.Entry<String, Object> property : ((Map<String, Object>) value).entrySet()) {
+          String name = property.getKey();
+          if (declared.contains(name) || matchesAny(patterns, name)) {
+            continue;
+          }
+          String error = additional.check(raw(property.getValue()));
+          if (error != null) {
+            return (additional == NONE)
+                ? ": additional property " + name + " is not allowed"
+                : "/" + name + error;
+          }
+        }
+        return null;
+      };
+    }
+
+    @SuppressWarnings("unchecked")
+    private Node items(Object v) {
+      if (v instanceof List) {
+        Node[] tuple = nodes((List<Object>) v);
+        return value -> {
+          if (!(value instanceof List)) {
+            return null;
+          }
+          List<Object> list = (List<Object>) value;
+          for (int i = 0; i < tuple.length && i < list.size(); i++) {
+            String error = tuple[i].check(raw(list.get(i)));
+            if (error != null) {
+              return "/" + i + error;
+            }
+          }
+          return null;
+        };
+      }
+
+      Node item = node(v);
+      return value -> {
+        if (!(value instanceof List)) {
+          return null;
+        }
+        List<Object> list = (List<Object>) value;
+        for (int i = 0; i < list.size(); i++) {
+          String error = item.check(raw(list.get(i)));
+          if (error != null) {
+            return "/" + i + error;
+          }
+        }
+        return null;
+      };
+    }
+
+    /**
+     * Returns the node of a local reference. The node is registered before its target is compiled,
+     * so recursive schemas refer to themselves.
+     */
+    @SuppressWarnings("unchecked")
+    private Node ref(String ref) {
+      // Anchors, $id fragments and remote references are resolved by everit
+      if (!ref.equals("#") && !ref.startsWith("#/")) {
+        throw new Unsupported("$ref " + ref);
+      }
+      Node[] target = refs.get(ref);
+      if (target == null) {
+        target = new Node[1];
+        refs.put(ref, target);
+
+        Object schema = root;
+        for (String token : ref.substring(1).split("/")) {
+          if (token.isEmpty()) {
+            continue;
+          }
+          token = token.replace("~1", "/").replace("~0", "~");
+          Object container = raw(schema);
+          schema = null;
+          if (container instanceof List && token.matches("\\d+")) {
+            List<Object> list = (List<Object>) container;
+            int index = Integer.parseInt(token);
+            schema = (index < list.size()) ? list.get(index) : null;
+          } else if (container instanceof Map) {
+            schema = ((Map<String, Object>) container).get(token);
+          }
+          if (schema == null) {
+            // Possibly resolved against an $id, which everit supports
+            throw new Unsupported("Unresolved $ref " + ref);
+          }
+        }
+        target[0] = node(schema);
+      }
+      Node[] resolved = target;
+      return value -> resolved[0].check(value);
+    }
+  }
+
+  private static Node bound(double limit, boolean exclusive, boolean lower) {
+    return value -> {
+      if (!(value instanceof Number)) {
+        return null;
+      }
+      double d = ((Number) value).doubleValue();
+      boolean valid;
+      if (lower) {
+        valid = exclusive ? d > limit : d >= limit;
+      } else {
+        valid = exclusive ? d < limit : d <= limit;
+      }
+      if (valid) {
+        return null;
+      }
+      return ": must be " + (lower ? ">" : "<") + (exclusive ? " " : "= ") + limit;
+    };
+  }
+
+  private static boolean matchesAny(List<Pattern> patterns, String name) {
+    for (Pattern pattern : patterns) {
+      if (pattern.matcher(name).find()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean isType(Object value, String type) {
+    switch (type) {
+      case "object":
+        return value instanceof Map;
+      case "array":
+        return value instanceof List;
+      case "string":
+        return value instanceof String;
+      case "number":
+        return value instanceof Number;
+      case "integer":
+        return isIntegral(value);
+      case "boolean":
+        return value instanceof Boolean;
+      case "null":
+        return value == null;
+      default:
+        return false;
+    }
+  }
+
+  /** As in everit, a number written with a fraction, such as 1.0, is not an integer */
+  private static boolean isIntegral(Object value) {
+    return value instanceof Integer
+        || value instanceof Long
+        || value instanceof Short
+        || value instanceof Byte
+        || value instanceof BigInteger;
+  }
+
+  private static String uniqueItems(Object value) {
+    if (!(value instanceof List)) {
+      return null;
+    }
+    List<?> list = (List<?>) value;
+    for (int i = 0; i < list.size(); i++) {
+      for (int j = i + 1; j < list.size(); j++) {
+        if (same(list.get(i), list.get(j))) {
+          return ": items " + i + " and " + j + " are equal";
+        }
+      }
+    }
+    return null;
+  }
+
+  /** JSON equality: numbers are compared by value, whatever their Java type */
+  @SuppressWarnings("unchecked")
+  private static boolean same(Object a, Object b) {
+    a = raw(a);
+    b = raw(b);
+    if (a instanceof Number && b instanceof Number) {
+      return new BigDecimal(a.toString()).compareTo(new BigDecimal(b.toString())) == 0;
+    }
+    if (a instanceof Map && b instanceof Map) {
+      Map<String, Object> ma = (Map<String, Object>) a;
+      Map<String, Object> mb = (Map<String, Object>) b;
+      if (ma.size() != mb.size()) {
+        return false;
+      }
+      for (Map.Entry<String, Object> e : ma.entrySet()) {
+        if (!mb.containsKey(e.getKey()) || !same(e.getValue(), mb.get(e.getKey()))) {
+          return false;
+        }
+      }
+      return true;
+    }
+    if (a instanceof List && b instanceof List) {
+      List<Object> la = (List<Object>) a;
+      List<Object> lb = (List<Object>) b;
+      if (la.size() != lb.size()) {
+        return false;
+      }
+      for (int i = 0; i < la.size(); i++) {
+        if (!same(la.get(i), lb.get(i))) {
+          return false;
+        }
+      }
+      return true;
+    }
+    return (a == null) ? b == null : a.equals(b);
+  }
+}
@@ -0,0 +1,94 @@
+package iudx.catalogue.validator;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The compiled schemas, keyed by the id of the schema item that items refer to in
+ * refCatalogueSchema. Entries expire after a TTL and are dropped when the schema item is written.
+ * When the cache is full the entry compiled first is evicted.
+ */
+public class SchemaCache {
+
+  private static final class Entry {
+    private final CompiledSchema schema;
+    private final long compiledAt;
+
+    private Entry(CompiledSchema schema, long compiledAt) {
+      this.schema = schema;
+      this.compiledAt = compiledAt;
+    }
+  }
+
+  private final Map<String, Entry> schemas = new ConcurrentHashMap<String, Entry>();
+  private final int maxSize;
+  private final long ttl;
+
+  /**
+   * @param maxSize The maximum number of schemas kept
+   * @param ttl The time in milliseconds after which a schema is compiled again
+   */
+  public SchemaCache(int maxSize, long ttl) {
+    this.maxSize = maxSize;
+    this.ttl = ttl;
+  }
+
+  /**
+   * Returns a compiled schema
+   *
+   * @param id The id of the schema item
+   * @return The schema or null if it is not cached or has expired
+   */
+  public CompiledSchema get(String id) {
+    Entry entry = schemas.get(id);
+    if (entry == null) {
+      return null;
+    }
+    if (System.currentTimeMillis() - entry.compiledAt > ttl) {
+      schemas.remove(id, entry);
+      return null;
+    }
+    return entry.schema;
+  }
+
+  public void put(String id, CompiledSchema schema) {
+    if (maxSize <= 0) {
+      return;
+    }
+    schemas.put(id, new Entry(schema, System.currentTimeMillis()));
+    while (schemas.size() > maxSize) {
+      evictOldest();
+    }
+  }
+
+  /**
+   * Drops a schema, or all of them
+   *
+   * @param id The id of the schema item, null for all
+   */
+  public void invalidate(String id) {
+    if (id == null) {
+      schemas.clear();
+    } else {
+      schemas.remove(id);
+    }
+  }
+
+  public int size() {
+    return schemas.size();
+  }
+
+  private void evictOldest() {
+    String oldest = null;
+    long oldestTime = Long.MAX_VALUE;
+    for (Map.Entry<String, Entry> e : schemas.entrySet()) {
+      if (e.getValue().compiledAt < oldestTime) {
+        oldest = e.getKey();
+        oldestTime = e.getValue().compiledAt;
+      }
+    }
+    if (oldest != null) {
+      schemas.remove(oldest);
+    }
+  }
+}
@@ -13,10 +13,31 @@ public class Validator implements ValidatorInterface {
   @Override
   public void validateItem(JsonObject item, JsonObject schema) throws Exception {
 
+    CompiledSchema compiled = JsonSchema.compile(schema);
+    if (compiled != null) {
+      compiled.validate(item);
+      return;
+    }
+
     JSONObject p = new JSONObject(item.getMap());
     JSONObject s = new JSONObject(schema.getMap());
 
     Schema sc = SchemaLoader.load(s);
     sc.validate(p); // throws a ValidationException if this object is invalid
   }
+
+  /**
+   * Compiles the schema once, so that items are validated without compiling it again. Items are
+   * validated in place when the schema only uses keywords supported by JsonSchema, and converted to
+   * org.json for everit otherwise.
+   */
+  @Override
+  public CompiledSchema compile(JsonObject schema) {
+    CompiledSchema compiled = JsonSchema.compile(schema);
+    if (compiled != null) {
+      return compiled;
+    }
+    Schema sc = SchemaLoader.load(new JSONObject(schema.getMap()));
+    return item -> sc.validate(new JSONObject(item.getMap()));
+  }
 }
@@ -12,4 +12,16 @@ public interface ValidatorInterface {
    * @throws Exception - when validation fails
    */
   public void validateItem(JsonObject item, JsonObject schema) throws Exception;
+
+  /**
+   * Prepares a schema for the validation of many items. The default implementation validates every
+   * item against the schema as it is.
+   *
+   * @param schema - the schema against which the validation will be done
+   * @return the compiled schema
+   * @throws Exception - when the schema is invalid
+   */
+  public default CompiledSchema compile(JsonObject schema) throws Exception {
+    return item -> validateItem(item, schema);
+  }
 }
@@ -1,11 +1,21 @@
 package iudx.catalogue.validator;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 import io.vertx.core.AbstractVerticle;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.CompositeFuture;
 import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.WorkerExecutor;
 import io.vertx.core.eventbus.DeliveryOptions;
 import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
+import iudx.catalogue.codec.JsonEnvelope;
 
 /**
  * A verticle which will handle the request to validate the item before adding to the database.
@@ -17,6 +27,9 @@ public class ValidatorVerticle extends AbstractVerticle {
 
   private static final Logger logger = Logger.getLogger(ValidatorVerticle.class.getName());
   private ValidatorInterface isValid;
+  private SchemaCache schemas;
+  private WorkerExecutor validationPool;
+  private int validationThreads;
 
   /** @param validator - Implementation of ValidatorInterface we want to use to validate */
   public ValidatorVerticle(ValidatorInterface validator) {
@@ -26,6 +39,25 @@ public class ValidatorVerticle extends AbstractVerticle {
   @Override
   public void start(Future<Void> startFuture) {
     logger.info("Validator Verticle started!");
+    JsonEnvelope.registerCodec(vertx);
+    validationThreads =
+        config().getInteger("validation_pool_size", Runtime.getRuntime().availableProcessors());
+    validationPool = vertx.createSharedWorkerExecutor("iudx-validation", validationThreads);
+    schemas =
+        new SchemaCache(
+            config().getInteger("schema_cache_size", 256),
+            config().getLong("schema_cache_ttl", 600000L));
+
+    // The database publishes the id of every schema item that is written
+    vertx
+        .eventBus()
+        .<Object>consumer(
+            "schema.updated",
+            message -> {
+              Object body = JsonEnvelope.unwrap(message.body());
+              String id = (body instanceof JsonObject) ? ((JsonObject) body).getString("id") : null;
+              schemas.invalidate(id);
+            });
 
     vertx
         .eventBus()
@@ -38,6 +70,11 @@ public class ValidatorVerticle extends AbstractVerticle {
 
   }
 
+  @Override
+  public void stop() {
+    validationPool.close();
+  }
+
   /**
    * Handler to handle any request directed to this verticle
    *
@@ -46,6 +83,7 @@ public class ValidatorVerticle extends AbstractVerticle {
   private void validateRequest(Message<Object> message) {
 
     String action;
+    message = JsonEnvelope.receive(message);
     logger.info("Validator Verticle received message.body() = " + message.headers());
 
     action = message.headers().get("action");
@@ -56,6 +94,16 @@ public class ValidatorVerticle extends AbstractVerticle {
           validateItem(message);
           break;
         }
+      case "validate-items":
+        {
+          validateItems(message);
+          break;
+        }
+      case "precompile-schemas":
+        {
+          precompileSchemas(message);
+          break;
+        }
       
       default :
         {
@@ -84,9 +132,36 @@ public class ValidatorVerticle extends AbstractVerticle {
     }
 
     JsonObject item = (JsonObject) message.body();
-
-    // Get schema from database and validate
     String schemaID = item.getString("refCatalogueSchema");
+    if (schemaID == null) {
+      message.fail(0, "Invalid item: refCatalogueSchema is missing");
+      return;
+    }
+
+    resolveSchema(
+        schemaID,
+        schema -> {
+          if (schema.succeeded()) {
+            validate(message, item, schema.result());
+          } else {
+            message.fail(0, schema.cause().getMessage());
+          }
+        });
+  }
+
+  /**
+   * Returns the compiled schema with the given id, reading it from the database and compiling it
+   * when it is not cached
+   *
+   * @param schemaID - the id of the schema item
+   * @param handler - called with the compiled schema
+   */
+  private void resolveSchema(String schemaID, Handler<AsyncResult<CompiledSchema>> handler) {
+    CompiledSchema schema = schemas.get(schemaID);
+    if (schema != null) {
+      handler.handle(Future.succeededFuture(schema));
+      return;
+    }
 
     DeliveryOptions database_action = new DeliveryOptions();
     database_action.addHeader("action", "read-schema");
@@ -98,23 +173,180 @@ public class ValidatorVerticle extends AbstractVerticle {
         .eventBus()
         .send(
             "database",
-            request_body,
+            JsonEnvelope.wrap(request_body),
             database_action,
             database_reply -> {
               if (database_reply.succeeded()) {
-                logger.info(database_reply.result().body().toString());
-                JsonObject schema = (JsonObject) database_reply.result().body();
-                try {
-                  isValid.validateItem(item, schema);
-                } catch (Exception e) {
-                  message.fail(0, "fail");
+                JsonObject schema_item =
+                    (JsonObject) JsonEnvelope.unwrap(database_reply.result().body());
+                CompiledSchema compiled = compile(schemaID, schema_item);
+                if (compiled == null) {
+                  handler.handle(Future.failedFuture("Invalid schema: " + schemaID));
+                } else {
+                  handler.handle(Future.succeededFuture(compiled));
                 }
-                message.reply("success");
-              } else if (database_reply.failed()) {
-                message.fail(0, database_reply.cause().toString());
               } else {
+                handler.handle(Future.failedFuture(database_reply.cause().toString()));
+              }
+            });
+  }
+
+  /**
+   * Validates the items of a bulk create in parallel on the validation worker pool. The items are
+   * grouped by refCatalogueSchema, so every schema is read and compiled once, and each group is
+   * split into one chunk per worker. The reply has the number of valid and invalid items and a
+   * result per item, in the order of the items: {"index", "status": valid or invalid, "error"}.
+   *
+   * @param message - request that came on the eventbus, with the items
+   */
+  private void validateItems(Message<Object> message) {
+    JsonArray items = ((JsonObject) message.body()).getJsonArray("items");
+    JsonObject[] results = new JsonObject[items.size()];
+
+    Map<String, List<Integer>> groups = new LinkedHashMap<String, List<Integer>>();
+    for (int i = 0; i < items.size(); i++) {
+      Object item = items.getValue(i);
+      String schemaID =
+          (item instanceof JsonObject) ? ((JsonObject) item).getString("refCatalogueSchema") : null;
+      if (schemaID == null) {
+        results[i] = invalid(i, "refCatalogueSchema is missing");
+      } else {
+        groups.computeIfAbsent(schemaID, id -> new ArrayList<Integer>()).add(i);
+      }
+    }
+
+    List<Future> chunks = new ArrayList<Future>();
+    List<Future> resolved = new ArrayList<Future>();
+    for (Map.Entry<String, List<Integer>> group : groups.entrySet()) {
+      Future<Void> groupDone = Future.future();
+      resolved.add(groupDone);
+      resolveSchema(
+          group.getKey(),
+          schema -> {
+            List<Integer> indexes = group.getValue();
+            if (schema.failed()) {
+              for (int i : indexes) {
+                results[i] = invalid(i, schema.cause().getMessage());
+              }
+            } else {
+              int chunkSize = (indexes.size() + validationThreads - 1) / validationThreads;
+              for (int from = 0; from < indexes.size(); from += chunkSize) {
+                List<Integer> chunk =
+                    indexes.subList(from, Math.min(from + chunkSize, indexes.size()));
+                Future<Void> chunkDone = Future.future();
+                chunks.add(chunkDone);
+                validationPool.<Void>executeBlocking(
+                    validated -> {
+                      for (int i : chunk) {
+                        results[i] = validate(i, items.getJsonObject(i), schema.result());
+                      }
+                      validated.complete();
+                    },
+                    false,
+                    chunkDone.completer());
+              }
+            }
+            groupDone.complete();
+          });
+    }
+
+    // Every schema is resolved before the chunks are waited for
+    CompositeFuture.all(resolved)
+        .compose(v -> CompositeFuture.all(chunks))
+        .setHandler(
+            done -> {
+              if (done.failed()) {
                 message.fail(0, "fail");
+                return;
+              }
+              JsonArray report = new JsonArray();
+              int valid = 0;
+              for (JsonObject result : results) {
+                if ("valid".equals(result.getString("status"))) {
+                  valid++;
+                }
+                report.add(result);
               }
+              message.reply(
+                  new JsonObject()
+                      .put("valid", valid)
+                      .put("invalid", results.length - valid)
+                      .put("results", report));
             });
   }
+
+  private static JsonObject validate(int index, JsonObject item, CompiledSchema schema) {
+    try {
+      schema.validate(item);
+      return new JsonObject().put("index", index).put("status", "valid");
+    } catch (Exception e) {
+      return invalid(index, e.getMessage());
+    }
+  }
+
+  private static JsonObject invalid(int index, String error) {
+    return new JsonObject().put("index", index).put("status", "invalid").put("error", error);
+  }
+
+  private void validate(Message<Object> message, JsonObject item, CompiledSchema schema) {
+    try {
+      schema.validate(item);
+    } catch (Exception e) {
+      message.fail(0, "fail");
+      return;
+    }
+    message.reply("success");
+  }
+
+  private CompiledSchema compile(String schemaID, JsonObject schema) {
+    try {
+      CompiledSchema compiled = isValid.compile(schema);
+      schemas.put(schemaID, compiled);
+      return compiled;
+    } catch (Exception e) {
+      logger.info("Could not compile schema " + schemaID + ": " + e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * Compiles the base schemas and data models of the catalogue, so that the first items created
+   * after a start do not wait for their schema to be read and compiled
+   *
+   * @param message - request that came on the eventbus. The number of compiled schemas is replied.
+   */
+  private void precompileSchemas(Message<Object> message) {
+    String[] schemaTypes = {"base-schema", "data-model"};
+    int[] compiled = {0};
+    int[] pending = {schemaTypes.length};
+
+    for (String schemaType : schemaTypes) {
+      DeliveryOptions database_action = new DeliveryOptions();
+      database_action.addHeader("action", "list");
+
+      vertx
+          .eventBus()
+          .send(
+              "database",
+              JsonEnvelope.wrap(new JsonObject().put("item-type", schemaType)),
+              database_action,
+              database_reply -> {
+                if (database_reply.succeeded()) {
+                  JsonArray items = (JsonArray) JsonEnvelope.unwrap(database_reply.result().body());
+                  for (Object schema : items) {
+                    String id = ((JsonObject) schema).getString("id");
+                    if (id != null && compile(id, (JsonObject) schema) != null) {
+                      compiled[0]++;
+                    }
+                  }
+                } else {
+                  logger.info("Could not list " + schemaType + ": " + database_reply.cause());
+                }
+                if (--pending[0] == 0) {
+                  logger.info("Precompiled " + compiled[0] + " schemas");
+                  message.reply(new JsonObject().put("compiled", compiled[0]));
+                }
+              });
+    }
+  }
 }
@@ -0,0 +1,68 @@
+package iudx.catalogue.testcase;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import iudx.catalogue.database.AttributeQuery;
+
+class AttributeQueryTest {
+
+  @Test
+  @DisplayName("Testing compilation of a multi-valued attribute query.")
+  public void compileQuery() {
+    AttributeQuery query = AttributeQuery.compile("(item-type,$schema)", "((a,b),(c))");
+
+    JsonArray expressions = query.filter().getJsonArray("$and");
+    assertThat(expressions.size()).isEqualTo(2);
+    assertThat(expressions.getJsonObject(0))
+        .isEqualTo(
+            new JsonObject()
+                .put("item-type", new JsonObject().put("$in", new JsonArray().add("a").add("b"))));
+    assertThat(expressions.getJsonObject(1))
+        .isEqualTo(
+            new JsonObject()
+                .put("_$_schema", new JsonObject().put("$in", new JsonArray().add("c"))));
+    assertThat(query.getTags()).isNull();
+  }
+
+  @Test
+  @DisplayName("Testing that tags are lower-cased and reported for hit counting.")
+  public void compileTags() {
+    AttributeQuery query = AttributeQuery.compile("(tags)", "((Pune,Traffic))");
+
+    assertThat(query.getTags()).isEqualTo(new JsonArray().add("pune").add("traffic"));
+    assertThat(query.filter().getJsonArray("$and").getJsonObject(0).containsKey("_tags")).isTrue();
+  }
+
+  @Test
+  @DisplayName("Testing that repeated queries reuse the compiled query.")
+  public void reuseCompiledQuery() {
+    AttributeQuery first = AttributeQuery.compile("(id)", "((x))");
+    AttributeQuery second = AttributeQuery.compile("(id)", "((x))");
+
+    assertThat(second).isSameAs(first);
+    // Fields added by the caller must not leak into the cached filter
+    first.filter().put("Status", "Live");
+    assertThat(second.filter().containsKey("Status")).isFalse();
+  }
+
+  @Test
+  @DisplayName("Testing rejection of malformed attribute queries.")
+  public void rejectInvalidQuery() {
+    assertThat(AttributeQuery.compile("(a,b)", "((x))")).isNull();
+    assertThat(AttributeQuery.compile("a", "((x))")).isNull();
+    assertThat(AttributeQuery.compile("(location)", "((bounding-type:circle,lat:abc))")).isNull();
+  }
+
+  @Test
+  @DisplayName("Testing parsing of the attribute filter.")
+  public void parseFields() {
+    assertThat(AttributeQuery.fields("(id,$schema)"))
+        .isEqualTo(new JsonObject().put("id", 1).put("_$_schema", 1));
+    assertThat(AttributeQuery.fields("id")).isNull();
+  }
+}
@@ -0,0 +1,183 @@
+package iudx.catalogue.testcase;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.everit.json.schema.Schema;
+import org.everit.json.schema.ValidationException;
+import org.everit.json.schema.loader.SchemaLoader;
+import org.json.JSONObject;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import io.vertx.core.json.JsonObject;
+import iudx.catalogue.validator.CompiledSchema;
+import iudx.catalogue.validator.JsonSchema;
+
+/** Checks that JsonSchema and everit agree on the validity of items */
+class JsonSchemaTest {
+
+  private static final String DRAFT_6 = "'$schema': 'http://json-schema.org/draft-06/schema#'";
+
+  /** Decodes JSON written with single quotes, so that nested values are plain maps and lists */
+  private static JsonObject json(String json) {
+    return new JsonObject(json.replace('\'', '"'));
+  }
+
+  /**
+   * Validates each item with both validators and checks that they agree with each other and with
+   * the expected result
+   *
+   * @param schema The schema
+   * @param valid Whether each item is valid
+   * @param items The items
+   */
+  private static void assertAgree(String schema, boolean[] valid, String... items) {
+    JsonObject s = json(schema);
+    CompiledSchema compiled = JsonSchema.compile(s);
+    assertThat(compiled).as("compiled natively: %s", schema).isNotNull();
+    Schema everit = SchemaLoader.load(new JSONObject(s.getMap()));
+
+    for (int i = 0; i < items.length; i++) {
+      JsonObject item = json(items[i]);
+
+      boolean nativeValid = true;
+      try {
+        compiled.validate(item);
+      } catch (Exception e) {
+        nativeValid = false;
+      }
+
+      boolean everitValid = true;
+      try {
+        everit.validate(new JSONObject(item.getMap()));
+      } catch (ValidationException e) {
+        everitValid = false;
+      }
+
+      assertThat(nativeValid).as("JsonSchema on %s", items[i]).isEqualTo(everitValid);
+      assertThat(nativeValid).as("validity of %s", items[i]).isEqualTo(valid[i]);
+    }
+  }
+
+  @Test
+  @DisplayName("Testing recursive $ref pointers.")
+  public void recursiveRef() {
+    String schema =
+        "{'definitions': {'node': {'type': 'object', 'required': ['name'],"
+            + " 'properties': {'name': {'type': 'string'},"
+            + " 'children': {'type': 'array', 'items': {'$ref': '#/definitions/node'}}}}},"
+            + " '$ref': '#/definitions/node'}";
+    assertAgree(
+        schema,
+        new boolean[] {true, true, false, false},
+        "{'name': 'a'}",
+        "{'name': 'a', 'children': [{'name': 'b', 'children': [{'name': 'c'}]}]}",
+        "{'name': 'a', 'children': [{'name': 'b', 'children': [{}]}]}",
+        "{'name': 'a', 'children': [{'name': 1}]}");
+
+    String self =
+        "{'type': 'object', 'properties': {'value': {'type': 'integer'}, 'next': {'$ref': '#'}}}";
+    assertAgree(
+        self,
+        new boolean[] {true, false},
+        "{'value': 1, 'next': {'value': 2, 'next': {'value': 3}}}",
+        "{'value': 1, 'next': {'value': 2, 'next': {'value': 'x'}}}");
+  }
+
+  @Test
+  @DisplayName("Testing oneOf, which needs exactly one match.")
+  public void oneOf() {
+    String schema =
+        "{'properties': {'v': {'oneOf': [{'type': 'string', 'maxLength': 3},"
+            + " {'type': 'string', 'pattern': '^a'}, {'type': 'integer'}]}}}";
+    assertAgree(
+        schema,
+        new boolean[] {true, true, false, true, false},
+        "{'v': 'bcd'}",
+        "{'v': 'abcde'}",
+        "{'v': 'abc'}",
+        "{'v': 3}",
+        "{'v': true}");
+  }
+
+  @Test
+  @DisplayName("Testing exclusiveMinimum as a draft 4 boolean and as a draft 6 number.")
+  public void exclusiveMinimum() {
+    String draft4 =
+        "{'properties': {'n': {'type': 'number', 'minimum': 5, 'exclusiveMinimum': true}}}";
+    assertAgree(
+        draft4, new boolean[] {false, true, false}, "{'n': 5}", "{'n': 5.5}", "{'n': 4}");
+
+    String draft6 =
+        "{" + DRAFT_6 + ", 'properties': {'n': {'type': 'number', 'exclusiveMinimum': 5,"
+            + " 'exclusiveMaximum': 10}}}";
+    assertAgree(
+        draft6,
+        new boolean[] {false, true, true, false},
+        "{'n': 5}",
+        "{'n': 5.1}",
+        "{'n': 9}",
+        "{'n': 10}");
+  }
+
+  @Test
+  @DisplayName("Testing that integer-valued doubles are not integers.")
+  public void integerValuedDoubles() {
+    String schema = "{'properties': {'n': {'type': 'integer'}, 'x': {'type': 'number'}}}";
+    assertAgree(
+        schema,
+        new boolean[] {true, false, true, false},
+        "{'n': 2}",
+        "{'n': 2.0}",
+        "{'x': 2.0}",
+        "{'n': 2.5}");
+  }
+
+  @Test
+  @DisplayName("Testing uniqueItems on scalars and objects.")
+  public void uniqueItems() {
+    String schema = "{'properties': {'a': {'type': 'array', 'uniqueItems': true}}}";
+    assertAgree(
+        schema,
+        new boolean[] {true, false, true, false},
+        "{'a': [1, 2, 3]}",
+        "{'a': [1, 2, 1]}",
+        "{'a': [{'k': 1}, {'k': 2}]}",
+        "{'a': [{'k': 1, 'l': [1]}, {'l': [1], 'k': 1}]}");
+  }
+
+  @Test
+  @DisplayName("Testing additionalProperties combined with properties and patternProperties.")
+  public void additionalAndPatternProperties() {
+    String schema =
+        "{'type': 'object', 'properties': {'id': {'type': 'string'}},"
+            + " 'patternProperties': {'^x-': {'type': 'integer'}},"
+            + " 'additionalProperties': false}";
+    assertAgree(
+        schema,
+        new boolean[] {true, true, false, false},
+        "{'id': 'a'}",
+        "{'id': 'a', 'x-count': 3}",
+        "{'id': 'a', 'x-count': 'three'}",
+        "{'id': 'a', 'other': 1}");
+
+    String typed =
+        "{'type': 'object', 'patternProperties': {'^s_': {'type': 'string'}},"
+            + " 'additionalProperties': {'type': 'number'}}";
+    assertAgree(
+        typed,
+        new boolean[] {true, false, false},
+        "{'s_name': 'a', 'size': 2}",
+        "{'s_name': 1}",
+        "{'size': 'big'}");
+  }
+
+  @Test
+  @DisplayName("Testing that schemas with unsupported references are left to everit.")
+  public void unsupportedRefs() {
+    assertThat(JsonSchema.compile(json("{'properties': {'a': {'$ref': '#foo'}}}"))).isNull();
+    assertThat(JsonSchema.compile(json("{'properties': {'a': {'$ref': '#/missing'}}}"))).isNull();
+    assertThat(JsonSchema.compile(json("{'$ref': 'http://example.com/schema.json'}"))).isNull();
+    assertThat(JsonSchema.compile(json("{'properties': {'a': {'format': 'email'}}}"))).isNull();
+  }
+}
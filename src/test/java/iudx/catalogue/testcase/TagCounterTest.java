@@ -0,0 +1,146 @@
+package iudx.catalogue.testcase;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.LogManager;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.mongo.MongoClient;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+import iudx.catalogue.database.DatabaseVerticle;
+
+/** Checks that the item counts of tags stay exact when items are created and deleted in parallel */
+@ExtendWith(VertxExtension.class)
+class TagCounterTest {
+
+  private static final int ITEMS = 200;
+  private static final int DELETED = 120;
+
+  private static MongoClient mongo;
+
+  @BeforeAll
+  public static void prepare(Vertx vertx, VertxTestContext testContext) {
+    LogManager.getLogManager().reset();
+
+    JsonObject databaseConf =
+        new JsonObject().put("mongo_host", "localhost").put("mongo_port", 27017);
+    mongo =
+        MongoClient.createShared(
+            vertx,
+            new JsonObject()
+                .put("host", "localhost")
+                .put("port", 27017)
+                .put("db_name", "catalogue"));
+
+    // Several instances write the tag collection concurrently
+    vertx.deployVerticle(
+        DatabaseVerticle.class.getName(),
+        new DeploymentOptions().setConfig(databaseConf).setInstances(4),
+        testContext.succeeding(id -> testContext.completeNow()));
+  }
+
+  @AfterAll
+  public static void close_up(Vertx vertx) {
+    vertx.close();
+  }
+
+  @Test
+  @DisplayName("Tag counts stay exact under parallel creates and deletes")
+  public void parallelCreatesAndDeletes(Vertx vertx, VertxTestContext testContext) {
+    String shared = "stress-" + UUID.randomUUID();
+    String deleted = "stress-" + UUID.randomUUID();
+
+    List<Future> creates = new ArrayList<Future>();
+    for (int i = 0; i < ITEMS; i++) {
+      JsonArray tags = new JsonArray().add(shared);
+      if (i < DELETED) {
+        tags.add(deleted);
+      }
+      JsonObject item = new JsonObject().put("item-type", "resource-item").put("tags", tags);
+      creates.add(send(vertx, "create", item));
+    }
+
+    CompositeFuture.all(creates)
+        .compose(
+            created -> {
+              List<Future> deletes = new ArrayList<Future>();
+              for (int i = 0; i < DELETED; i++) {
+                JsonObject item =
+                    new JsonObject()
+                        .put("id", created.<String>resultAt(i))
+                        .put("item-type", "resource-item");
+                deletes.add(send(vertx, "delete", item));
+              }
+              return CompositeFuture.all(deletes);
+            })
+        .setHandler(
+            testContext.succeeding(
+                deletes -> awaitCounts(vertx, testContext, shared, deleted, 50)));
+  }
+
+  /** Tag counts are written after the reply to the item, so they are polled until they settle */
+  private void awaitCounts(
+      Vertx vertx, VertxTestContext testContext, String shared, String deleted, int attempts) {
+    JsonArray stress_tags = new JsonArray().add(shared).add(deleted);
+    JsonObject query = new JsonObject().put("tag", new JsonObject().put("$in", stress_tags));
+    mongo.find(
+        "tags",
+        query,
+        testContext.succeeding(
+            tags -> {
+              boolean settled =
+                  tags.size() == 1
+                      && shared.equals(tags.get(0).getString("tag"))
+                      && tags.get(0).getInteger("noOfItems") == ITEMS - DELETED;
+              if (settled || attempts == 0) {
+                testContext.verify(
+                    () -> {
+                      assertThat(tags).hasSize(1);
+                      assertThat(tags.get(0).getString("tag")).isEqualTo(shared);
+                      assertThat(tags.get(0).getInteger("noOfItems")).isEqualTo(ITEMS - DELETED);
+                      testContext.completeNow();
+                    });
+              } else {
+                vertx.setTimer(
+                    100, id -> awaitCounts(vertx, testContext, shared, deleted, attempts - 1));
+              }
+            }));
+  }
+
+  private Future<Object> send(Vertx vertx, String action, JsonObject body) {
+    Future<Object> reply = Future.future();
+    DeliveryOptions options = new DeliveryOptions().addHeader("action", action);
+    vertx
+        .eventBus()
+        .send(
+            "database",
+            body,
+            options,
+            (AsyncResult<Message<Object>> ar) -> {
+              if (ar.succeeded()) {
+                reply.complete(ar.result().body());
+              } else {
+                reply.fail(ar.cause());
+              }
+            });
+    return reply;
+  }
+}